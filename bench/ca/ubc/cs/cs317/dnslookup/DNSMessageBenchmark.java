@@ -0,0 +1,224 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the DNSMessage encode and decode paths. Run with "make bench", which adds the gc profiler so that
+ * every operation is also reported in bytes allocated per operation (gc.alloc.rate.norm).
+ *
+ * Decoding benchmarks wrap the received bytes in a new DNSMessage on every invocation, as the receive path does, and
+ * then decode every question and resource record in the message. Encoding benchmarks start from an empty message and
+ * add a prepared set of questions and records.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DNSMessageBenchmark {
+
+    private byte[] normQuery;
+    private byte[] normResponse;
+    private byte[] mitReferral;
+    private byte[] rootReferral;
+    private byte[] compressedNames;
+    private byte[] aaaaAnswers;
+
+    private DNSQuestion referralQuestion;
+    private List<ResourceRecord> referralRecords;
+    private List<ResourceRecord> aaaaRecords;
+    private DNSMessage encodedReferral;
+    private final DNSMessage reused = new DNSMessage((short) 0);
+    private ByteBuffer normResponseBuffer;
+    private DNSMessageBuilder referralBuilder;
+
+    @Setup
+    public void setup() {
+        normQuery = Fixtures.capture("qnorm.bin");
+        normResponse = Fixtures.capture("rnorm.bin");
+        mitReferral = Fixtures.capture("rmit.bin");
+        rootReferral = Fixtures.rootReferral();
+        compressedNames = Fixtures.compressedNames();
+        aaaaAnswers = Fixtures.aaaaAnswers();
+
+        // The NS records and their A glue from the root referral. The AAAA glue is left out so that the encoded
+        // message still fits in MAX_DNS_MESSAGE_LENGTH.
+        DNSMessage referral = new DNSMessage(rootReferral, rootReferral.length);
+        referralQuestion = referral.getQuestion();
+        referralRecords = new ArrayList<>();
+        for (int i = 0; i < referral.getNSCount() * 2; i++)
+            referralRecords.add(referral.getRR());
+
+        DNSMessage aaaa = new DNSMessage(aaaaAnswers, aaaaAnswers.length);
+        aaaa.getQuestion();
+        aaaaRecords = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+            aaaaRecords.add(aaaa.getRR());
+
+        encodedReferral = encodeReferral();
+        normResponseBuffer = ByteBuffer.wrap(normResponse);
+        referralBuilder = new DNSMessageBuilder(0x1234).addQuestion(referralQuestion);
+        for (ResourceRecord rr : referralRecords)
+            referralBuilder.add(rr.getRecordType() == RecordType.NS ? DNSSection.AUTHORITY : DNSSection.ADDITIONAL, rr);
+    }
+
+    private DNSMessage encodeReferral() {
+        DNSMessage message = new DNSMessage((short) 0x1234);
+        message.addQuestion(referralQuestion);
+        for (ResourceRecord rr : referralRecords)
+            message.addResourceRecord(rr);
+        return message;
+    }
+
+    private static void decodeAll(byte[] data, Blackhole bh) {
+        DNSMessage message = new DNSMessage(data, data.length);
+        for (int i = 0; i < message.getQDCount(); i++)
+            bh.consume(message.getQuestion());
+        int records = message.getANCount() + message.getNSCount() + message.getARCount();
+        for (int i = 0; i < records; i++)
+            bh.consume(message.getRR());
+    }
+
+    @Benchmark
+    public String getName() {
+        return new DNSMessage(normQuery, normQuery.length).getName();
+    }
+
+    @Benchmark
+    public DNSName getDNSName() {
+        return new DNSMessage(normQuery, normQuery.length).getDNSName();
+    }
+
+    @Benchmark
+    public DNSQuestion getQuestion() {
+        return new DNSMessage(normResponse, normResponse.length).getQuestion();
+    }
+
+    @Benchmark
+    public DNSQuestion getQuestionRewrap() {
+        reused.rewrap(normResponse, 0, normResponse.length);
+        return reused.getQuestion();
+    }
+
+    @Benchmark
+    public int peekQuestionHash() {
+        return DNSPeek.peekID(normResponseBuffer) ^ DNSPeek.questionHash(normResponseBuffer);
+    }
+
+    @Benchmark
+    public void getRRNorm(Blackhole bh) {
+        decodeAll(normResponse, bh);
+    }
+
+    @Benchmark
+    public void getRRMitReferral(Blackhole bh) {
+        decodeAll(mitReferral, bh);
+    }
+
+    @Benchmark
+    public void getRRRootReferral(Blackhole bh) {
+        decodeAll(rootReferral, bh);
+    }
+
+    @Benchmark
+    public void getRRCompressedNames(Blackhole bh) {
+        decodeAll(compressedNames, bh);
+    }
+
+    @Benchmark
+    public void getRRAaaaAnswers(Blackhole bh) {
+        decodeAll(aaaaAnswers, bh);
+    }
+
+    @Benchmark
+    public int getRecordSliceRootReferral() {
+        // A filter that only looks at record types: owner names and RDATA are never decoded
+        DNSMessage message = new DNSMessage(rootReferral, rootReferral.length);
+        message.skipName();
+        message.setPosition(message.getPosition() + 4);
+        int aaaa = 0;
+        int records = message.getANCount() + message.getNSCount() + message.getARCount();
+        for (int i = 0; i < records; i++)
+            if (message.getRecordSlice().getRecordType() == RecordType.AAAA) aaaa++;
+        return aaaa;
+    }
+
+    @Benchmark
+    public ResourceRecord additionalRootReferral() {
+        // Jump straight to the last glue record through the section index
+        DNSMessage message = new DNSMessage(rootReferral, rootReferral.length);
+        SectionView additional = message.additional();
+        return additional.getRR(additional.size() - 1);
+    }
+
+    @Benchmark
+    public DNSMessage addName() {
+        DNSMessage message = new DNSMessage((short) 1);
+        message.addName("a.b.c.d.e.f.svc.cluster.region.internal.example.com");
+        message.addName("n0.a.c.d.e.f.svc.cluster.region.internal.example.com");
+        return message;
+    }
+
+    @Benchmark
+    public DNSMessage addQuestion() {
+        DNSMessage message = new DNSMessage((short) 1);
+        message.addQuestion(referralQuestion);
+        return message;
+    }
+
+    @Benchmark
+    public DNSMessage addQuestionReset() {
+        reused.reset(1);
+        reused.addQuestion(referralQuestion);
+        return reused;
+    }
+
+    @Benchmark
+    public DNSMessage addResourceRecordReferral() {
+        return encodeReferral();
+    }
+
+    @Benchmark
+    public DNSMessage buildReferral() {
+        DNSMessageBuilder builder = new DNSMessageBuilder(0x1234).addQuestion(referralQuestion);
+        for (ResourceRecord rr : referralRecords)
+            builder.add(rr.getRecordType() == RecordType.NS ? DNSSection.AUTHORITY : DNSSection.ADDITIONAL, rr);
+        return builder.build();
+    }
+
+    @Benchmark
+    public DNSMessage buildReferralReused() {
+        // Steady state of a responder: same builder, same pooled message
+        referralBuilder.build(reused);
+        return reused;
+    }
+
+    @Benchmark
+    public DNSMessage addResourceRecordAaaa() {
+        DNSMessage message = new DNSMessage((short) 1);
+        for (ResourceRecord rr : aaaaRecords)
+            message.addResourceRecord(rr);
+        return message;
+    }
+
+    @Benchmark
+    public byte[] getUsed() {
+        return encodedReferral.getUsed();
+    }
+}
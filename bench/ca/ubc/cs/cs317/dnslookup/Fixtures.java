@@ -0,0 +1,167 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wire-format messages used by the benchmarks. The captured messages (qnorm.bin, rnorm.bin, rmit.bin, ...) are read
+ * from the project directory, and a few larger responses are synthesized here so that the hot paths are exercised on
+ * the shapes of message we actually see: root referrals, names that lean heavily on compression, and AAAA-heavy
+ * answers.
+ *
+ * The synthesized messages are written by the small Writer below rather than by DNSMessage itself, so that the
+ * fixtures stay valid no matter what state the encoder under test is in.
+ */
+public final class Fixtures {
+
+    private static final String[] ROOT_SERVERS = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads one of the captured messages from the project directory.
+     *
+     * @param name The file name, e.g. "rmit.bin"
+     * @return The content of the file
+     */
+    public static byte[] capture(String name) {
+        Path path = Paths.get(System.getProperty("dnsmessage.fixtures", "."), name);
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read fixture \"" + path + "\"", e);
+        }
+    }
+
+    /**
+     * A referral from a root server for www.example.com: 13 NS records in the authority section, with an A and an
+     * AAAA glue record for each of them in the additional section.
+     */
+    public static byte[] rootReferral() {
+        Writer w = new Writer(0x1234, 0x8000);
+        w.question("www.example.com", RecordType.A.getCode());
+        for (String s : ROOT_SERVERS)
+            w.nameRecord(Writer.AUTHORITY, "com", RecordType.NS.getCode(), 172800, s + ".gtld-servers.net");
+        for (int i = 0; i < ROOT_SERVERS.length; i++)
+            w.addressRecord(Writer.ADDITIONAL, ROOT_SERVERS[i] + ".gtld-servers.net", RecordType.A.getCode(), 172800,
+                    new byte[]{(byte) 192, 5, (byte) (6 + i), 30});
+        for (int i = 0; i < ROOT_SERVERS.length; i++)
+            w.addressRecord(Writer.ADDITIONAL, ROOT_SERVERS[i] + ".gtld-servers.net", RecordType.AAAA.getCode(),
+                    172800, ipv6(0x2001, 0x0503, 0xa83e + i, 0, 0, 0, 2, 0x30));
+        return w.toByteArray();
+    }
+
+    /**
+     * A response whose names are deep and share long suffixes, so that almost every name in the message ends in a
+     * pointer, and many pointers lead to names that themselves end in pointers.
+     */
+    public static byte[] compressedNames() {
+        Writer w = new Writer(0x4321, 0x8180);
+        String base = "svc.cluster.region.internal.example.com";
+        w.question("a.b.c.d.e.f." + base, RecordType.CNAME.getCode());
+        String previous = "a.b.c.d.e.f." + base;
+        for (int i = 0; i < 24; i++) {
+            String target = "n" + i + "." + (char) ('a' + i % 6) + ".c.d.e.f." + base;
+            w.nameRecord(Writer.ANSWER, previous, RecordType.CNAME.getCode(), 300, target);
+            previous = target;
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * A response with 32 AAAA records for a single name, as returned by large anycast or CDN front ends.
+     */
+    public static byte[] aaaaAnswers() {
+        Writer w = new Writer(0x5555, 0x8180);
+        w.question("cdn.example.net", RecordType.AAAA.getCode());
+        for (int i = 0; i < 32; i++)
+            w.addressRecord(Writer.ANSWER, "cdn.example.net", RecordType.AAAA.getCode(), 60,
+                    ipv6(0x2606, 0x4700, 0x10, 0, 0, 0, 0x6814, i));
+        return w.toByteArray();
+    }
+
+    private static byte[] ipv6(int... groups) {
+        ByteBuffer b = ByteBuffer.allocate(16);
+        for (int g : groups) b.putShort((short) g);
+        return b.array();
+    }
+
+    /**
+     * Minimal wire-format writer: one question, then records appended in section order, with suffix compression of
+     * owner names and of names in RDATA.
+     */
+    private static final class Writer {
+        static final int ANSWER = 6;
+        static final int AUTHORITY = 8;
+        static final int ADDITIONAL = 10;
+
+        private final ByteBuffer buf = ByteBuffer.allocate(65535);
+        private final Map<String, Integer> suffixes = new HashMap<>();
+
+        Writer(int id, int flags) {
+            buf.putShort((short) id).putShort((short) flags).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        }
+
+        void question(String name, int type) {
+            name(name);
+            buf.putShort((short) type).putShort((short) 1);
+            bump(4);
+        }
+
+        void nameRecord(int section, String owner, int type, int ttl, String target) {
+            header(owner, type, ttl);
+            int rdlength = buf.position();
+            buf.putShort((short) 0);
+            name(target);
+            buf.putShort(rdlength, (short) (buf.position() - rdlength - 2));
+            bump(section);
+        }
+
+        void addressRecord(int section, String owner, int type, int ttl, byte[] address) {
+            header(owner, type, ttl);
+            buf.putShort((short) address.length).put(address);
+            bump(section);
+        }
+
+        private void header(String owner, int type, int ttl) {
+            name(owner);
+            buf.putShort((short) type).putShort((short) 1).putInt(ttl);
+        }
+
+        private void name(String name) {
+            while (!name.isEmpty()) {
+                Integer offset = suffixes.get(name);
+                if (offset != null) {
+                    buf.putShort((short) (0xc000 | offset));
+                    return;
+                }
+                suffixes.put(name, buf.position());
+                int dot = name.indexOf('.');
+                String label = dot < 0 ? name : name.substring(0, dot);
+                byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                buf.put((byte) bytes.length).put(bytes);
+                name = dot < 0 ? "" : name.substring(dot + 1);
+            }
+            buf.put((byte) 0);
+        }
+
+        private void bump(int countOffset) {
+            buf.putShort(countOffset, (short) (buf.getShort(countOffset) + 1));
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[buf.position()];
+            buf.get(0, result);
+            return result;
+        }
+    }
+}
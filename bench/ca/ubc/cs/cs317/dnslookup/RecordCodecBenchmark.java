@@ -0,0 +1,111 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to write and read a batch of a million records with RecordCodec, against Java serialization of the same
+ * records as an ArrayList. The size of each encoding is printed when the benchmark starts.
+ *
+ * The records look like the contents of a resolver's cache: mostly A and AAAA records, with some CNAME and NS records,
+ * for names spread over a few thousand zones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Thread)
+public class RecordCodecBenchmark {
+    private static final int RECORDS = 1_000_000;
+
+    private ArrayList<ResourceRecord> records;
+    private ByteBuffer encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        records = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            String zone = "zone" + (i % 5000) + ".example" + (i % 7) + ".com";
+            String name = "host" + i / 5000 + "." + zone;
+            switch (i % 10) {
+                case 0:
+                    records.add(new ResourceRecord(new DNSQuestion(zone, RecordType.NS, RecordClass.IN), 86400,
+                            "ns" + i % 3 + "." + zone));
+                    break;
+                case 1:
+                    records.add(new ResourceRecord(new DNSQuestion("www." + name, RecordType.CNAME, RecordClass.IN),
+                            300, name));
+                    break;
+                case 2:
+                case 3:
+                    records.add(new ResourceRecord(new DNSQuestion(name, RecordType.AAAA, RecordClass.IN), 300,
+                            0x20010db800000000L | i, i));
+                    break;
+                default:
+                    records.add(new ResourceRecord(new DNSQuestion(name, RecordType.A, RecordClass.IN), 300,
+                            0x0a000000 | i));
+            }
+        }
+        encoded = ByteBuffer.allocate(64 << 20);
+        encodeCodec();
+        serialized = encodeSerialization();
+        System.out.println("\nRecordCodec: " + encoded.position() + " bytes, serialization: " + serialized.length
+                + " bytes, for " + RECORDS + " records");
+    }
+
+    @Benchmark
+    public int encodeCodec() {
+        RecordCodec.Encoder encoder = new RecordCodec.Encoder();
+        encoded.clear();
+        for (ResourceRecord rr : records)
+            encoder.encode(rr, encoded);
+        return encoded.position();
+    }
+
+    @Benchmark
+    public int decodeCodec() {
+        ByteBuffer in = encoded.duplicate().flip();
+        RecordCodec.Decoder decoder = new RecordCodec.Decoder();
+        int count = 0;
+        while (decoder.decode(in) != null)
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public byte[] encodeSerialization() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(serialized == null ? 1 << 20 : serialized.length);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(records);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int decodeSerialization() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return ((List<ResourceRecord>) in.readObject()).size();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A non-blocking DNS client over UDP. Any number of queries can be in flight at once: they are spread over a small set
+ * of connected DatagramChannels, all served by one event loop thread, and each query gets a random ID that is unique
+ * on its socket. A response completes its query's future only if it comes from the server (the sockets are
+ * connected), is a response, carries the ID of a query in flight on that socket, and has the same question, so stray
+ * or spoofed datagrams are dropped. A query that gets no response is sent again after the timeout, up to the given
+ * number of retries, and then fails with a TimeoutException. Retransmissions are driven by a TimerWheel.
+ *
+ * Futures are completed on the event loop thread, so callbacks attached to them should not block; use the async
+ * variants of CompletableFuture's methods for anything slow. A truncated response (getTC()) is returned as it is,
+ * for the caller to retry over TCP.
+ */
+public class AsyncDNSClient implements Closeable {
+    public static final int DEFAULT_SOCKETS = 4;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    public static final int DEFAULT_RETRIES = 2;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SLOTS = 512;
+
+    private final DatagramChannel[] channels;
+    // The queries in flight on each socket, indexed by ID
+    private final Query[][] inFlight;
+    private final long timeoutNanos;
+    private final int retries;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Query> submitted = new ConcurrentLinkedQueue<>();
+    private final TimerWheel wheel;
+    private final SecureRandom random = new SecureRandom();
+    private final ByteBuffer received = ByteBuffer.allocateDirect(DNSMessage.MAX_MESSAGE_LENGTH);
+    private final Thread loop;
+    private volatile boolean closed;
+    private int nextChannel;
+
+    /**
+     * A query, from its submission until its future is completed. It is its own retransmission timer.
+     */
+    private final class Query extends TimerWheel.Timeout {
+        final ByteBuffer wire;
+        final CompletableFuture<DNSMessage> future = new CompletableFuture<>();
+        int channel = -1;
+        int id;
+        int attempts;
+
+        Query(ByteBuffer wire) {
+            this.wire = wire;
+        }
+
+        @Override
+        void expired() {
+            if (attempts <= retries) {
+                send(this);
+            } else {
+                inFlight[channel][id] = null;
+                future.completeExceptionally(new TimeoutException("No response after " + attempts + " attempts"));
+            }
+        }
+    }
+
+    /**
+     * Creates a client for the given server with the default number of sockets, timeout and retries.
+     *
+     * @param server The address of the DNS server
+     * @throws IOException if the sockets can't be opened
+     */
+    public AsyncDNSClient(InetSocketAddress server) throws IOException {
+        this(server, DEFAULT_SOCKETS, DEFAULT_TIMEOUT_MILLIS, DEFAULT_RETRIES);
+    }
+
+    /**
+     * @param server        The address of the DNS server
+     * @param sockets       The number of sockets over which queries are spread
+     * @param timeoutMillis How long to wait for a response before sending a query again
+     * @param retries       How many times a query is sent again before giving up on it
+     * @throws IOException if the sockets can't be opened
+     */
+    public AsyncDNSClient(InetSocketAddress server, int sockets, long timeoutMillis, int retries) throws IOException {
+        if (sockets < 1) throw new IllegalArgumentException("At least one socket is needed");
+        if (timeoutMillis < 1 || retries < 0) throw new IllegalArgumentException("Bad timeout or retries");
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.retries = retries;
+        this.selector = Selector.open();
+        this.channels = new DatagramChannel[sockets];
+        this.inFlight = new Query[sockets][65536];
+        try {
+            for (int i = 0; i < sockets; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+                channels[i].connect(server);
+                channels[i].register(selector, SelectionKey.OP_READ, i);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        this.wheel = new TimerWheel(TICK_NANOS, WHEEL_SLOTS, System.nanoTime());
+        this.loop = new Thread(this::run, "AsyncDNSClient");
+        this.loop.setDaemon(true);
+        this.loop.start();
+    }
+
+    /**
+     * Sends a recursive query (with RD set) for the given question.
+     *
+     * @param question The question to be asked
+     * @return A future completed with the response, or with a TimeoutException if none came
+     */
+    public CompletableFuture<DNSMessage> query(DNSQuestion question) {
+        DNSMessage message = new DNSMessage((short) 0);
+        message.setRD(true);
+        message.addQuestion(question);
+        return send(message);
+    }
+
+    /**
+     * Sends a query built by the caller, e.g. with an OPT record. Its ID is replaced by one chosen by the client, and
+     * it is copied, so the message can be reused as soon as this method returns.
+     *
+     * @param query The query to be sent, with at least one question
+     * @return A future completed with the response, or with a TimeoutException if none came
+     */
+    public CompletableFuture<DNSMessage> send(DNSMessage query) {
+        if (query.getQDCount() == 0) throw new IllegalArgumentException("Query has no question");
+        Query q = new Query(ByteBuffer.wrap(query.getUsed()));
+        if (closed) {
+            q.future.completeExceptionally(new ClosedChannelException());
+            return q.future;
+        }
+        submitted.add(q);
+        selector.wakeup();
+        // The event loop may have stopped between the check above and the add
+        if (closed && submitted.remove(q)) q.future.completeExceptionally(new ClosedChannelException());
+        return q.future;
+    }
+
+    /**
+     * @return The number of queries sent and not answered yet. Only meaningful on the event loop thread, or once the
+     * client has been closed.
+     */
+    int inFlightCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Stops the event loop and closes the sockets. Queries still in flight fail with a ClosedChannelException. When
+     * called from a callback on the event loop, the loop stops once the callback returns instead.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() == loop) return;
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(wheel.size() == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(wheel.getTickLength()));
+                for (Query q = submitted.poll(); q != null; q = submitted.poll())
+                    start(q);
+                for (SelectionKey key : selector.selectedKeys())
+                    receive((Integer) key.attachment());
+                selector.selectedKeys().clear();
+                wheel.advance(System.nanoTime());
+            }
+        } catch (IOException | RuntimeException e) {
+            closed = true;
+        } finally {
+            failAll();
+            closeChannels();
+        }
+    }
+
+    /**
+     * Picks a socket and an ID unused on that socket for a newly submitted query, and sends it.
+     */
+    private void start(Query q) {
+        for (int tries = 0; tries < 16 * channels.length; tries++) {
+            int channel = nextChannel;
+            nextChannel = (nextChannel + 1) % channels.length;
+            int id = random.nextInt(65536);
+            if (inFlight[channel][id] == null) {
+                q.channel = channel;
+                q.id = id;
+                q.wire.putShort(0, (short) id);
+                inFlight[channel][id] = q;
+                send(q);
+                return;
+            }
+        }
+        q.future.completeExceptionally(new IllegalStateException("Too many queries in flight"));
+    }
+
+    private void send(Query q) {
+        q.attempts++;
+        try {
+            // A datagram that the socket can't take now is as good as lost: the timer sends it again
+            channels[q.channel].write(q.wire.duplicate());
+        } catch (IOException e) {
+            // Same as a lost datagram, e.g. an ICMP port unreachable reported on a connected socket
+        }
+        wheel.schedule(q, System.nanoTime() + timeoutNanos);
+    }
+
+    private void receive(int channel) throws IOException {
+        while (true) {
+            received.clear();
+            try {
+                if (channels[channel].receive(received) == null) return;
+            } catch (IOException e) {
+                if (closed) throw e;
+                return; // e.g. port unreachable: the queries will time out or be sent again
+            }
+            received.flip();
+            if (!DNSPeek.hasHeader(received) || !DNSPeek.peekQR(received)) continue;
+            Query q = inFlight[channel][DNSPeek.peekID(received)];
+            if (q == null || !DNSPeek.sameQuestion(q.wire, received)) continue;
+            inFlight[channel][q.id] = null;
+            wheel.cancel(q);
+            byte[] response = new byte[received.remaining()];
+            received.get(response);
+            q.future.complete(new DNSMessage(response, response.length));
+        }
+    }
+
+    private void failAll() {
+        for (Query q = submitted.poll(); q != null; q = submitted.poll())
+            q.future.completeExceptionally(new ClosedChannelException());
+        for (Query[] queries : inFlight) {
+            for (int id = 0; id < queries.length; id++) {
+                if (queries[id] != null) {
+                    wheel.cancel(queries[id]);
+                    queries[id].future.completeExceptionally(new ClosedChannelException());
+                    queries[id] = null;
+                }
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                // Nothing more can be done about it
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing more can be done about it
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Resolves a long list of questions through an AsyncDNSClient, with at most a given number of lookups in flight.
+ * Questions are taken from the list one at a time, as permits free up, so the list can be streamed from a file of any
+ * size, and each result is handed to the consumer as soon as its lookup completes, in completion order.
+ *
+ * No thread waits on a lookup: each holds a permit from the moment its query is sent until its result has been handed
+ * to the consumer, which runs on the common ForkJoinPool rather than on the client's event loop.
+ */
+public class BulkLookup {
+    public static final int DEFAULT_CONCURRENCY = 256;
+
+    private final AsyncDNSClient client;
+    private final int concurrency;
+
+    /**
+     * The outcome of one lookup: the response, or the reason there is none.
+     */
+    public static final class Result {
+        private final DNSQuestion question;
+        private final DNSMessage response;
+        private final Throwable error;
+
+        Result(DNSQuestion question, DNSMessage response, Throwable error) {
+            this.question = question;
+            this.response = response;
+            this.error = error;
+        }
+
+        public DNSQuestion getQuestion() {
+            return question;
+        }
+
+        /**
+         * @return The response, or null if the lookup failed.
+         */
+        public DNSMessage getResponse() {
+            return response;
+        }
+
+        /**
+         * @return Why the lookup failed (e.g. a TimeoutException), or null if it succeeded.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return One line: the question, then the response code and every answer, or the error.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(question.toString());
+            if (response == null) {
+                sb.append(" ERROR ").append(error);
+                return sb.toString();
+            }
+            sb.append(' ').append(DNSMessage.dnsErrorMessage(response.getRcode()));
+            if (response.getTC()) sb.append(" (truncated)");
+            SectionView answers = response.answers();
+            for (int i = 0; i < answers.size(); i++)
+                sb.append(' ').append(answers.getRR(i).getTextResult());
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param client      The client the queries are sent through
+     * @param concurrency The maximum number of lookups in flight
+     */
+    public BulkLookup(AsyncDNSClient client, int concurrency) {
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1");
+        this.client = client;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Parses a line of a batch file: a name and a record type (A if omitted), separated by spaces. Blank lines and
+     * anything after a '#' are ignored, as in the interactive commands.
+     *
+     * @param line The line to be parsed
+     * @return The question on the line, or null if there is none
+     * @throws IllegalArgumentException if the name can't be sent in a query, or the type is not a known record type
+     */
+    public static DNSQuestion parse(String line) {
+        line = line.split("#", 2)[0].trim();
+        if (line.isEmpty()) return null;
+        String[] fields = line.split("\\s+");
+        RecordType type = fields.length > 1 ? RecordType.valueOf(fields[1].toUpperCase()) : RecordType.A;
+        DNSName.of(fields[0]); // a name that could not be sent is a bad line, like a bad type
+        return new DNSQuestion(fields[0], type, RecordClass.IN);
+    }
+
+    /**
+     * Parses a line as parse(String) does, but reports a bad line instead of throwing, so that one bad line in a batch
+     * file does not abort the lookups of the others.
+     *
+     * @param line   The line to be parsed
+     * @param errors Receives a message for a bad line
+     * @return The question on the line, or null if there is none or the line is bad
+     */
+    public static DNSQuestion parse(String line, Consumer<String> errors) {
+        try {
+            return parse(line);
+        } catch (IllegalArgumentException e) {
+            errors.accept("Skipping bad line \"" + line + "\": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Looks up every question, and returns once all the results have been handed to the consumer. The consumer is
+     * called from pool threads, possibly concurrently, so it must be thread-safe. A question that can't be sent, such
+     * as one with a malformed name, gets a result with the error like any failed lookup.
+     *
+     * @param questions The questions to look up
+     * @param results   Receives the result of each lookup as it completes
+     * @throws InterruptedException if interrupted while waiting; the lookups in flight still complete
+     */
+    public void run(Iterable<DNSQuestion> questions, Consumer<Result> results) throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        for (DNSQuestion question : questions) {
+            permits.acquire();
+            CompletableFuture<DNSMessage> response;
+            try {
+                response = client.query(question);
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            // Off the client's event loop, which must not wait on a slow consumer
+            response.whenCompleteAsync((message, error) -> {
+                try {
+                    results.accept(new Result(question, message, error instanceof CompletionException
+                            ? error.getCause() : error));
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+        permits.acquire(concurrency);
+    }
+}
@@ -0,0 +1,425 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Saves the records of a RecordCache to a file and restores them, so that a resolver that restarts does not start
+ * with an empty cache. The file is made of chunks, each of which is a DNS message holding records in its answer
+ * section, in the same wire format (and with the same name compression) as any other message, followed by an index
+ * of every record, sorted by the hash of its question.
+ *
+ * A snapshot begins with a header:
+ * <pre>
+ *     MAGIC (4 bytes) | VERSION (2 bytes) | unused (2 bytes) | time the snapshot was taken (8 bytes)
+ *     | offset of the index (8 bytes) | number of records (4 bytes) | number of record sets (4 bytes)
+ * </pre>
+ * each chunk is:
+ * <pre>
+ *     message length (4 bytes) | message
+ * </pre>
+ * and each entry of the index is:
+ * <pre>
+ *     question hash (4 bytes) | expiration time (8 bytes) | offset of the chunk (6 bytes)
+ *     | offset of the record in the chunk's message (2 bytes)
+ * </pre>
+ * Times are in milliseconds since the epoch, and question hashes are those of QuestionKey.
+ *
+ * Opening a snapshot only maps the file and reads its header, so a resolver is warm as soon as it starts, whatever the
+ * size of the snapshot. The records stay in the mapping, and a record set is only decoded and moved into the cache the
+ * first time it is asked for, or a record is put for its question. Records that have expired by then are discarded
+ * without being decoded.
+ */
+public final class CacheSnapshot {
+    public static final int MAGIC = 0x444E5343; // "DNSC"
+    public static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 32;
+    private static final int CHUNK_HEADER_LENGTH = 4;
+    private static final int INDEX_ENTRY_LENGTH = 20;
+    private static final long MAP_WINDOW = 1L << 30;
+    // Windows overlap by the longest chunk, so that a chunk or an index entry is whole in the window it starts in
+    private static final long MAP_OVERLAP = CHUNK_HEADER_LENGTH + DNSMessage.MAX_MESSAGE_LENGTH;
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Writes the records of the cache that have not expired to a file. The snapshot is written to a temporary file
+     * that then replaces the given one, so a snapshot that is cut short never replaces a good one, and a cache opened
+     * from the old file keeps reading it.
+     *
+     * @param cache The cache to be saved
+     * @param path  The file to write
+     * @return The number of records written
+     * @throws IOException if the file can't be written
+     */
+    public static int save(RecordCache cache, Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_LENGTH);
+            ChunkWriter writer = new ChunkWriter(channel);
+            try {
+                cache.forEach(writer::add);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            long indexOffset = channel.position();
+            int sets = writer.writeIndex();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putLong(System.currentTimeMillis())
+                    .putLong(indexOffset).putInt(writer.written).putInt(sets).flip();
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(false);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return writer.written;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Opens a snapshot as a RecordCache that holds the records of the given cache as well as those of the snapshot.
+     * The snapshot's records are moved into the given cache as they are needed, which is where all records end up:
+     * what is put into the returned cache is put into the given one.
+     *
+     * @param path  The snapshot to read
+     * @param cache The cache the records are moved to
+     * @return A cache backed by both the snapshot and the given cache
+     * @throws IOException if the file can't be read, is not a snapshot or is truncated
+     */
+    public static RecordCache open(Path path, RecordCache cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH) throw new IOException("Not a cache snapshot: " + path);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a cache snapshot: " + path);
+            int version = header.getShort(4) & 0xFFFF;
+            if (version != VERSION) throw new IOException("Unsupported cache snapshot version: " + version);
+            long indexOffset = header.getLong(16);
+            int records = header.getInt(24);
+            int sets = header.getInt(28);
+            if (indexOffset < HEADER_LENGTH || records < 0 || sets < 0
+                    || indexOffset + (long) records * INDEX_ENTRY_LENGTH != size)
+                throw new IOException("Truncated cache snapshot: " + path);
+
+            // A mapping outlives its channel, and is unmapped once it is no longer reachable
+            MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((size - 1) / MAP_WINDOW) + 1];
+            for (int i = 0; i < windows.length; i++) {
+                long base = i * MAP_WINDOW;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                        Math.min(size - base, MAP_WINDOW + MAP_OVERLAP));
+            }
+            return new MappedSnapshot(windows, indexOffset, records, sets, cache);
+        }
+    }
+
+    /**
+     * Adds the records of a snapshot that have not expired to the cache, all at once.
+     *
+     * @param path  The snapshot to read
+     * @param cache The cache the records are added to
+     * @return The number of records added
+     * @throws IOException if the file can't be read, is not a snapshot or is corrupt
+     */
+    public static int load(Path path, RecordCache cache) throws IOException {
+        int[] loaded = new int[1];
+        try {
+            ((MappedSnapshot) open(path, cache)).forEachSnapshotRecord(rr -> {
+                cache.put(rr);
+                loaded[0]++;
+            }, false);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt cache snapshot", e);
+        }
+        return loaded[0];
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers)
+            remaining += buffer.remaining();
+        while (remaining > 0)
+            remaining -= channel.write(buffers);
+    }
+
+    /**
+     * A RecordCache in front of a mapped snapshot. Every entry of the index is moved to the cache (or discarded) at
+     * most once, which is recorded in a bit set, so that a record set that was removed or has expired in the cache is
+     * never brought back from the snapshot. A record that turns out to be corrupt is discarded like an expired one.
+     */
+    private static final class MappedSnapshot implements RecordCache {
+        final MappedByteBuffer[] windows;
+        final long indexOffset;
+        final int records;
+        final RecordCache cache;
+        final long[] taken; // one bit per index entry
+        int pendingSets;
+        boolean cleared;
+
+        MappedSnapshot(MappedByteBuffer[] windows, long indexOffset, int records, int sets, RecordCache cache) {
+            this.windows = windows;
+            this.indexOffset = indexOffset;
+            this.records = records;
+            this.pendingSets = sets;
+            this.cache = cache;
+            this.taken = new long[(records + 63) >>> 6];
+        }
+
+        @Override
+        public void put(ResourceRecord rr) {
+            // The snapshot's records come first, so that the record set is merged as put() does
+            take(QuestionKey.of(rr.getQuestion()), true);
+            cache.put(rr);
+        }
+
+        @Override
+        public List<ResourceRecord> get(DNSQuestion question) {
+            List<ResourceRecord> records = cache.get(question);
+            if (!records.isEmpty() || !take(QuestionKey.of(question), true)) return records;
+            return cache.get(question);
+        }
+
+        @Override
+        public void remove(DNSQuestion question) {
+            take(QuestionKey.of(question), false);
+            cache.remove(question);
+        }
+
+        /**
+         * @return An estimate: the record sets of the cache, and those of the snapshot that have not been asked for
+         */
+        @Override
+        public int size() {
+            synchronized (this) {
+                return cache.size() + pendingSets;
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (this) {
+                cleared = true;
+                pendingSets = 0;
+            }
+            cache.clear();
+        }
+
+        @Override
+        public void forEach(Consumer<ResourceRecord> action) {
+            cache.forEach(action);
+            forEachSnapshotRecord(action, true);
+        }
+
+        /**
+         * Passes every record of the snapshot that has not been moved to the cache and has not expired to the action,
+         * in index order, without moving it.
+         *
+         * @throws IllegalArgumentException if a record is corrupt, unless corrupt records are skipped
+         */
+        void forEachSnapshotRecord(Consumer<ResourceRecord> action, boolean skipCorrupt) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < records; i++) {
+                synchronized (this) {
+                    if (cleared) return;
+                    if (isTaken(i)) continue;
+                }
+                long expiration = expirationAt(i);
+                if (expiration <= now) continue;
+                ResourceRecord rr;
+                try {
+                    rr = sliceAt(i).toResourceRecord();
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    if (skipCorrupt) continue;
+                    throw e;
+                }
+                rr.setExpirationTime(expiration);
+                action.accept(rr);
+            }
+        }
+
+        /**
+         * Takes the entries of the index that belong to the key's record set, moving those that have not expired to
+         * the cache if asked to.
+         *
+         * @return true if a record was moved
+         */
+        private synchronized boolean take(QuestionKey key, boolean move) {
+            if (cleared) return false;
+            long now = System.currentTimeMillis();
+            boolean tookAny = false;
+            boolean moved = false;
+            for (int i = lowerBound(key.hashCode()); i < records && hashAt(i) == key.hashCode(); i++) {
+                if (isTaken(i)) continue;
+                try {
+                    long expiration = expirationAt(i);
+                    if (expiration > now) {
+                        RecordSlice slice = sliceAt(i);
+                        // A record of another question with the same hash is left for that question
+                        if (!key.equals(new QuestionKey(slice.getName(), slice.getTypeCode(), slice.getClassCode())))
+                            continue;
+                        if (move) {
+                            ResourceRecord rr = slice.toResourceRecord();
+                            rr.setExpirationTime(expiration);
+                            cache.put(rr);
+                            moved = true;
+                        }
+                    }
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    // A corrupt record is discarded
+                }
+                taken[i >>> 6] |= 1L << i;
+                tookAny = true;
+            }
+            if (tookAny) pendingSets = Math.max(pendingSets - 1, 0);
+            return moved;
+        }
+
+        private boolean isTaken(int i) {
+            return (taken[i >>> 6] & (1L << i)) != 0;
+        }
+
+        private int lowerBound(int hash) {
+            int low = 0;
+            int high = records;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (hashAt(mid) < hash) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        private int hashAt(int i) {
+            long entry = indexOffset + (long) i * INDEX_ENTRY_LENGTH;
+            return window(entry).getInt(local(entry));
+        }
+
+        private long expirationAt(int i) {
+            long entry = indexOffset + (long) i * INDEX_ENTRY_LENGTH;
+            return window(entry).getLong(local(entry) + 4);
+        }
+
+        private RecordSlice sliceAt(int i) {
+            long entry = indexOffset + (long) i * INDEX_ENTRY_LENGTH;
+            long location = window(entry).getLong(local(entry) + 12);
+            long chunk = location >>> 16;
+            ByteBuffer window = window(chunk);
+            int start = local(chunk) + CHUNK_HEADER_LENGTH;
+            int length = window.getInt(start - CHUNK_HEADER_LENGTH);
+            if (length < DNSPeek.HEADER_LENGTH || length > DNSMessage.MAX_MESSAGE_LENGTH)
+                throw new IllegalArgumentException("Bad chunk length at offset " + chunk);
+            return new RecordSlice(window.slice(start, length), (int) (location & 0xFFFF));
+        }
+
+        /**
+         * @return The window a position of the file is read from, the one it starts in
+         */
+        private ByteBuffer window(long pos) {
+            return windows[(int) (pos / MAP_WINDOW)];
+        }
+
+        private static int local(long pos) {
+            return (int) (pos % MAP_WINDOW);
+        }
+    }
+
+    /**
+     * Packs records into a message until it is full, then writes it out as a chunk, and keeps an index entry for
+     * every record written.
+     */
+    private static final class ChunkWriter {
+        final FileChannel channel;
+        final DNSMessage message = new DNSMessage((short) 0);
+        final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+        int[] hashes = new int[1024];
+        long[] expirations = new long[1024];
+        long[] locations = new long[1024];
+        long chunkOffset; // where the message being filled will be written
+        int written;
+
+        ChunkWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.chunkOffset = channel.position();
+            message.setMaxLength(DNSMessage.MAX_MESSAGE_LENGTH);
+        }
+
+        void add(ResourceRecord rr) {
+            try {
+                if (!tryAdd(rr)) {
+                    flush();
+                    tryAdd(rr); // a record too large for a message of its own is left out
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (IllegalArgumentException e) {
+                // A record that can't be encoded is left out
+            }
+        }
+
+        private boolean tryAdd(ResourceRecord rr) {
+            int offset = message.getPosition();
+            if (!message.tryAddResourceRecord(DNSSection.ANSWER, rr)) return false;
+            if (written == hashes.length) {
+                hashes = Arrays.copyOf(hashes, 2 * written);
+                expirations = Arrays.copyOf(expirations, 2 * written);
+                locations = Arrays.copyOf(locations, 2 * written);
+            }
+            hashes[written] = QuestionKey.of(rr.getQuestion()).hashCode();
+            expirations[written] = rr.getExpirationTime();
+            locations[written] = (chunkOffset << 16) | offset;
+            written++;
+            return true;
+        }
+
+        void flush() throws IOException {
+            if (message.getANCount() == 0) return;
+            ByteBuffer wire = message.asByteBuffer();
+            chunkHeader.clear();
+            chunkHeader.putInt(wire.remaining()).flip();
+            writeFully(channel, chunkHeader, wire);
+            chunkOffset += CHUNK_HEADER_LENGTH + wire.limit();
+            message.reset((short) 0);
+        }
+
+        /**
+         * Writes the index, sorted by question hash.
+         *
+         * @return The number of record sets, counted as distinct hashes
+         */
+        int writeIndex() throws IOException {
+            long[] order = new long[written];
+            for (int i = 0; i < written; i++)
+                order[i] = ((long) hashes[i] << 32) | i;
+            Arrays.sort(order);
+            ByteBuffer entries = ByteBuffer.allocate(INDEX_ENTRY_LENGTH * 4096);
+            int sets = 0;
+            for (int k = 0; k < written; k++) {
+                int i = (int) order[k];
+                if (k == 0 || hashes[i] != hashes[(int) order[k - 1]]) sets++;
+                if (entries.remaining() < INDEX_ENTRY_LENGTH) {
+                    entries.flip();
+                    writeFully(channel, entries);
+                    entries.clear();
+                }
+                entries.putInt(hashes[i]).putLong(expirations[i]).putLong(locations[i]);
+            }
+            entries.flip();
+            writeFully(channel, entries);
+            return sets;
+        }
+    }
+}
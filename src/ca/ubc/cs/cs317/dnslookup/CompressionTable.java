@@ -0,0 +1,131 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The name compression dictionary of a message being encoded. It remembers where every name suffix written to the
+ * message starts, keyed by the suffix's case-insensitive hash (as computed by DNSName.hashLabel), in an
+ * open-addressing table of ints. A hash match is only a candidate: it is confirmed by comparing the suffix with the
+ * bytes already in the message, so no copy of any name is kept.
+ *
+ * The table also owns the scratch space used to turn a name into wire format and to hash its suffixes, so that adding
+ * a name allocates nothing once the table has been created. Entries are logged in insertion order, which makes
+ * clear() proportional to the number of entries, and lets rollback() undo the most recent insertions exactly.
+ */
+final class CompressionTable {
+    // Compression pointers have 14 bits, so only suffixes starting below this offset can be pointed to
+    static final int MAX_POINTER_OFFSET = 0x3FFF;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY]; // position + 1, so that 0 marks an empty slot
+    private int[] log = new int[INITIAL_CAPACITY / 2];
+    private int size;
+
+    // Scratch space for the name being added: its wire form, where each label starts, and each suffix's hash
+    final byte[] wire = new byte[DNSName.MAX_NAME_LENGTH];
+    final int[] labelStarts = new int[DNSName.MAX_NAME_LENGTH / 2 + 1];
+    final int[] suffixHashes = new int[DNSName.MAX_NAME_LENGTH / 2 + 1];
+
+    /**
+     * Finds a suffix already written to the message.
+     *
+     * @param message The buffer holding the message being encoded
+     * @param hash    The hash of the suffix
+     * @param name    The bytes holding the suffix in uncompressed wire format
+     * @param offset  The offset of the suffix's first length octet in name
+     * @return The position of the suffix in the message, or -1 if it has not been written
+     */
+    int find(ByteBuffer message, int hash, byte[] name, int offset) {
+        int mask = hashes.length - 1;
+        for (int slot = mix(hash) & mask; positions[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && matches(message, positions[slot] - 1, name, offset))
+                return positions[slot] - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Remembers that a suffix with the given hash starts at the given position of the message.
+     *
+     * @param hash     The hash of the suffix
+     * @param position The position of the suffix's first length octet in the message
+     */
+    void put(int hash, int position) {
+        if (position > MAX_POINTER_OFFSET) return;
+        if ((size + 1) * 2 > hashes.length) grow();
+        int mask = hashes.length - 1;
+        int slot = mix(hash) & mask;
+        while (positions[slot] != 0)
+            slot = (slot + 1) & mask;
+        hashes[slot] = hash;
+        positions[slot] = position + 1;
+        if (size == log.length) {
+            int[] bigger = new int[log.length * 2];
+            System.arraycopy(log, 0, bigger, 0, size);
+            log = bigger;
+        }
+        log[size++] = slot;
+    }
+
+    /**
+     * @return The number of suffixes in the table, to be passed to rollback().
+     */
+    int mark() {
+        return size;
+    }
+
+    /**
+     * Forgets every suffix added after mark() returned the given value, e.g. because the record they belong to has
+     * been removed from the message. Removing entries in reverse insertion order leaves the probe sequences of the
+     * remaining entries exactly as they were.
+     *
+     * @param mark A value previously returned by mark()
+     */
+    void rollback(int mark) {
+        while (size > mark)
+            positions[log[--size]] = 0;
+    }
+
+    void clear() {
+        rollback(0);
+    }
+
+    private void grow() {
+        int[] oldHashes = hashes;
+        int[] oldPositions = positions;
+        int[] oldLog = log;
+        int oldSize = size;
+        hashes = new int[oldHashes.length * 2];
+        positions = new int[oldPositions.length * 2];
+        log = new int[oldLog.length * 2];
+        size = 0;
+        // Reinserting in the original order keeps the log usable for rollback()
+        for (int i = 0; i < oldSize; i++)
+            put(oldHashes[oldLog[i]], oldPositions[oldLog[i]] - 1);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compares, ignoring case, the name written at the given position of the message (following the compression
+     * pointers it may contain, which always lead backwards) with an uncompressed suffix.
+     */
+    private static boolean matches(ByteBuffer message, int pos, byte[] name, int offset) {
+        while (true) {
+            int len = message.get(pos) & 0xFF;
+            if ((len & 0xC0) == 0xC0) {
+                pos = message.getShort(pos) & 0x3FFF;
+                continue;
+            }
+            if (len != name[offset]) return false;
+            if (len == 0) return true;
+            for (int i = 1; i <= len; i++)
+                if (DNSName.toLower(message.get(pos + i)) != DNSName.toLower(name[offset + i])) return false;
+            pos += len + 1;
+            offset += len + 1;
+        }
+    }
+}
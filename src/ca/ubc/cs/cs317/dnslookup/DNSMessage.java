@@ -1,18 +1,24 @@
 package ca.ubc.cs.cs317.dnslookup;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.IntStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractList;
+import java.util.List;
 
 public class DNSMessage {
     public static final int MAX_DNS_MESSAGE_LENGTH = 512;
-    private final Map<String, Integer> nameToPosition = new HashMap<>();
-    private final Map<Integer, String> positionToName = new HashMap<>();
-    private final ByteBuffer buffer;
+    // The most a message can hold, because of the 16 bit length prefix over TCP and the payload size in EDNS
+    public static final int MAX_MESSAGE_LENGTH = 65535;
+    private CompressionTable compression;
+    private ByteBuffer buffer;
+    private ByteBuffer ownBuffer;
+    private int maxLength = MAX_DNS_MESSAGE_LENGTH;
+    // Offset of every question and resource record, in message order, and where each section starts in offsets
+    private int[] offsets;
+    private int[] sectionStart;
+    private boolean indexed;
 
 
     /**
@@ -21,9 +27,17 @@ public class DNSMessage {
      * @param id The id of the message.
      */
     public DNSMessage(short id) {
-        this.buffer = ByteBuffer.allocate(MAX_DNS_MESSAGE_LENGTH);
-        this.buffer.putShort(0,(short) id);
-        this.buffer.position(12);
+        reset(id);
+    }
+
+    /**
+     * Initializes a DNSMessage with the remaining bytes of the given buffer, which may be a direct buffer or a slice
+     * of a larger buffer. The data is not copied.
+     *
+     * @param recvd The buffer holding the received message, from its position to its limit
+     */
+    public DNSMessage(ByteBuffer recvd) {
+        rewrap(recvd);
     }
 
     /**
@@ -33,8 +47,65 @@ public class DNSMessage {
      * @param length The length of the data in the array
      */
     public DNSMessage(byte[] recvd, int length) {
-        this.buffer = ByteBuffer.wrap(recvd, 0, length);
-        this.buffer.position(12);
+        rewrap(recvd, 0, length);
+    }
+
+    /**
+     * Turn this message back into an empty message with the given id, ready for questions and resource records to
+     * be added. The message's own buffer is reused, so no allocation takes place after the first use. The maximum
+     * length set by setMaxLength() is kept.
+     *
+     * @param id The id of the message.
+     */
+    public void reset(int id) {
+        if (ownBuffer == null) ownBuffer = ByteBuffer.allocate(MAX_DNS_MESSAGE_LENGTH);
+        buffer = ownBuffer;
+        buffer.clear();
+        buffer.limit(Math.min(maxLength, buffer.capacity()));
+        buffer.putShort(0, (short) id);
+        buffer.putLong(2, 0L);
+        buffer.putShort(10, (short) 0);
+        buffer.position(12);
+        if (compression != null) compression.clear();
+        indexed = false;
+    }
+
+    /**
+     * Point this message at a newly received message, held in the remaining bytes of the given buffer (for example,
+     * a direct buffer filled by a DatagramChannel and then flipped). The data is not copied, so the buffer's content
+     * must not be modified while the message is in use; its position and limit may be changed freely.
+     *
+     * @param recvd The buffer holding the received message, from its position to its limit
+     */
+    public void rewrap(ByteBuffer recvd) {
+        buffer = recvd.slice();
+        buffer.position(12);
+        if (compression != null) compression.clear();
+        indexed = false;
+    }
+
+    /**
+     * Point this message at a newly received message, held in length bytes of the given array starting at offset.
+     * The data is not copied, so the array must not be modified while the message is in use. Rewrapping the same
+     * array at offset 0, as a receive loop does, reuses the existing buffer and allocates nothing.
+     *
+     * @param recvd  The byte array containing the received message
+     * @param offset The offset of the message's header in the array
+     * @param length The length of the message
+     */
+    public void rewrap(byte[] recvd, int offset, int length) {
+        if (offset != 0) {
+            buffer = ByteBuffer.wrap(recvd, offset, length).slice();
+        } else {
+            if (buffer == null || buffer == ownBuffer || !buffer.hasArray() || buffer.array() != recvd
+                    || buffer.arrayOffset() != 0)
+                buffer = ByteBuffer.wrap(recvd);
+            buffer.clear();
+            buffer.limit(length);
+        }
+        buffer.position(12);
+        if (compression != null) compression.clear();
+        indexed = false;
     }
 
     /**
@@ -148,58 +219,219 @@ public class DNSMessage {
     }
 
     public int getQDCount() {
-        return (this.buffer.getShort(4));
+        return getCount(DNSSection.QUESTION);
     }
 
     public void setQDCount(int count) {
-        this.buffer.putShort(4, (short) count);
+        setCount(DNSSection.QUESTION, count);
     }
 
     public int getANCount() {
-        return (this.buffer.getShort(6));
+        return getCount(DNSSection.ANSWER);
+    }
+
+    public void setANCount(int count) {
+        setCount(DNSSection.ANSWER, count);
     }
 
     public int getNSCount() {
-        return (this.buffer.getShort(8));
+        return getCount(DNSSection.AUTHORITY);
+    }
+
+    public void setNSCount(int count) {
+        setCount(DNSSection.AUTHORITY, count);
     }
 
     public int getARCount() {
-        return (this.buffer.getShort(10));
+        return getCount(DNSSection.ADDITIONAL);
     }
 
     public void setARCount(int count) {
-        this.buffer.putShort(10, (short) count);
+        setCount(DNSSection.ADDITIONAL, count);
+    }
+
+    /**
+     * @param section The section of interest
+     * @return The number of entries in the section, according to the header
+     */
+    public int getCount(DNSSection section) {
+        return (this.buffer.getShort(section.getCountOffset()) & 0xFFFF);
+    }
+
+    public void setCount(DNSSection section, int count) {
+        this.buffer.putShort(section.getCountOffset(), (short) count);
+        indexed = false;
+    }
+
+    /**
+     * Record, in a single pass over the message, the offset at which every question and resource record starts.
+     * Resource records are skipped using their RDLENGTH, so nothing is decoded. The index is kept until the message
+     * changes, and its arrays are reused when a pooled message is indexed again.
+     */
+    private void index() {
+        if (indexed) return;
+        int qd = getQDCount();
+        int total = qd + getANCount() + getNSCount() + getARCount();
+        if (sectionStart == null) sectionStart = new int[5];
+        sectionStart[0] = 0;
+        sectionStart[1] = qd;
+        sectionStart[2] = qd + getANCount();
+        sectionStart[3] = sectionStart[2] + getNSCount();
+        sectionStart[4] = total;
+        if (offsets == null || offsets.length < total) offsets = new int[total];
+        int pos = 12;
+        for (int i = 0; i < qd; i++) {
+            offsets[i] = pos;
+            pos = DNSName.end(buffer, pos) + 4;
+            if (pos > buffer.limit())
+                throw new IllegalArgumentException("Question at offset " + offsets[i] + " runs past the end of the message");
+        }
+        for (int i = qd; i < total; i++) {
+            offsets[i] = pos;
+            pos = RecordSlice.end(buffer, pos);
+        }
+        indexed = true;
+    }
+
+    /**
+     * Return the offset in the message at which the i-th entry of a section starts. The message is indexed the first
+     * time this is needed, so every entry can then be reached without decoding the ones before it.
+     *
+     * @param section The section of interest
+     * @param i The index of the entry within the section
+     * @return The offset of the first byte of the entry
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public int getOffset(DNSSection section, int i) {
+        index();
+        int start = sectionStart[section.ordinal()];
+        if (i < 0 || start + i >= sectionStart[section.ordinal() + 1])
+            throw new IndexOutOfBoundsException("No entry " + i + " in " + section + " section");
+        return offsets[start + i];
     }
 
     /**
-     * Return the name at the current position() of the buffer.  This method is provided for you,
-     * but you should ensure that you understand what it does and how it does it.
+     * Return the i-th resource record of a section, without changing the current position.
      *
-     * The trick is to keep track of all the positions in the message that contain names, since
-     * they can be the target of a pointer.  We do this by storing the mapping of position to
-     * name in the positionToName map.
+     * @param section The section of interest, other than QUESTION
+     * @param i The index of the record within the section
+     * @return A slice describing the record
+     */
+    public RecordSlice getRecordSlice(DNSSection section, int i) {
+        return new RecordSlice(buffer, getOffset(section, i));
+    }
+
+    /**
+     * Return the i-th question of the message, without changing the current position.
+     *
+     * @param i The index of the question
+     * @return The decoded question
+     */
+    public DNSQuestion getQuestion(int i) {
+        int offset = getOffset(DNSSection.QUESTION, i);
+        int end = DNSName.end(buffer, offset);
+        return new DNSQuestion(DNSName.read(buffer, offset).toString(),
+                buffer.getShort(end) & 0xFFFF, buffer.getShort(end + 2) & 0xFFFF);
+    }
+
+    /**
+     * @return A read-only list of the questions in the message, each decoded when it is retrieved.
+     */
+    public List<DNSQuestion> questions() {
+        return new AbstractList<DNSQuestion>() {
+            @Override
+            public DNSQuestion get(int i) {
+                return getQuestion(i);
+            }
+
+            @Override
+            public int size() {
+                return getQDCount();
+            }
+        };
+    }
+
+    /**
+     * @return The resource records in the answer section.
+     */
+    public SectionView answers() {
+        return new SectionView(this, DNSSection.ANSWER);
+    }
+
+    /**
+     * @return The resource records in the authority section.
+     */
+    public SectionView authority() {
+        return new SectionView(this, DNSSection.AUTHORITY);
+    }
+
+    /**
+     * @return The resource records in the additional section.
+     */
+    public SectionView additional() {
+        return new SectionView(this, DNSSection.ADDITIONAL);
+    }
+
+    /**
+     * Return the name at the current position() of the buffer, as text.
      *
      * @return The decoded name
      */
     public String getName() {
-        // Remember the starting position for updating the name cache
+        return getDNSName().toString();
+    }
+
+    /**
+     * Return the name at the current position() of the buffer, and move the position past it.
+     *
+     * Compression pointers are followed directly in the buffer, so no record of previously decoded names needs to
+     * be kept, and the labels are copied once into a compact DNSName without building any String.
+     *
+     * @return The decoded name
+     */
+    public DNSName getDNSName() {
         int start = buffer.position();
-        int len = buffer.get() & 0xff;
-        if (len == 0) return "";
-        if ((len & 0xc0) == 0xc0) {  // This is a pointer
-            int pointer = ((len & 0x3f) << 8) | (buffer.get() & 0xff);
-            String suffix = positionToName.get(pointer);
-            assert suffix != null;
-            positionToName.put(start, suffix);
-            return suffix;
-        }
-        byte[] bytes = new byte[len];
-        buffer.get(bytes, 0, len);
-        String label = new String(bytes, StandardCharsets.UTF_8);
-        String suffix = getName();
-        String answer = suffix.isEmpty() ? label : label + "." + suffix;
-        positionToName.put(start, answer);
-        return answer;
+        DNSName name = DNSName.read(buffer, start);
+        buffer.position(DNSName.end(buffer, start));
+        return name;
+    }
+
+    /**
+     * Return the name stored at the given offset in the message, without changing the current position. Pointers
+     * are resolved against the whole message, so the offset may be anywhere, in any section.
+     *
+     * @param offset The offset of the first byte of the name, counted from the start of the header
+     * @return The decoded name
+     */
+    public DNSName getDNSName(int offset) {
+        return DNSName.read(buffer, offset);
+    }
+
+    /**
+     * Move the current position past the name stored there, without decoding it.
+     */
+    public void skipName() {
+        buffer.position(DNSName.end(buffer, buffer.position()));
+    }
+
+    /**
+     * The current position in the message, i.e., where the next question or resource record will be decoded from,
+     * or where the next one will be added. Offsets are counted from the start of the header.
+     */
+    public int getPosition() {
+        return buffer.position();
+    }
+
+    public void setPosition(int position) {
+        buffer.position(position);
+    }
+
+    /**
+     * The length of the whole message: the number of bytes received for a received message, whatever has been
+     * decoded, or the number of bytes added so far for a message being built (the same as getPosition()).
+     */
+    public int getLength() {
+        return buffer == ownBuffer ? buffer.position() : buffer.limit();
     }
 
     /**
@@ -207,11 +439,8 @@ public class DNSMessage {
      * @return The string representation of the message
      */
     public String toString() {
-        // Remember the current position of the buffer so we can put it back
-        // Since toString() can be called by the debugger, we want to be careful to not change
-        // the position in the buffer.  We remember what it was and put it back when we are done.
-        int end = buffer.position();
-        final int DataOffset = 12;
+        // The sections are displayed through the index, so the position in the buffer is left alone.
+        // Since toString() can be called by the debugger, we want to be careful to not change it.
         try {
             StringBuilder sb = new StringBuilder();
             sb.append("ID: ").append(getID()).append(' ');
@@ -227,46 +456,43 @@ public class DNSMessage {
             sb.append("ANCount: ").append(getANCount()).append(' ');
             sb.append("NSCount: ").append(getNSCount()).append(' ');
             sb.append("ARCount: ").append(getARCount()).append('\n');
-            buffer.position(DataOffset);
-            showQuestions(getQDCount(), sb);
-            //showRRs("Authoritative", getANCount(), sb);
-            showRRs("Name servers", getNSCount(), sb);
-            showRRs("Additional", getARCount(), sb);
+            showQuestions(questions(), sb);
+            showRRs("Answers", answers(), sb);
+            showRRs("Name servers", authority(), sb);
+            showRRs("Additional", additional(), sb);
             return sb.toString();
         } catch (Exception e) {
             e.printStackTrace();
             return "toString failed on DNSMessage";
         }
-        finally {
-            buffer.position(end);
-        }
     }
 
     /**
-     * Add the text representation of all the questions (there are nq of them) to the StringBuilder sb.
+     * Add the text representation of all the questions to the StringBuilder sb.
      *
-     * @param nq Number of questions
+     * @param questions The questions
      * @param sb Collects the string representations
      */
-    private void showQuestions(int nq, StringBuilder sb) {
-        sb.append("Question [").append(nq).append("]\n");
-        for (int i = 0; i < nq; i++) {
-            DNSQuestion question = getQuestion();
+    private void showQuestions(List<DNSQuestion> questions, StringBuilder sb) {
+        sb.append("Question [").append(questions.size()).append("]\n");
+        for (int i = 0; i < questions.size(); i++) {
+            DNSQuestion question = questions.get(i);
             sb.append('[').append(i).append(']').append(' ').append(question).append('\n');
         }
     }
 
     /**
-     * Add the text representation of all the resource records (there are nrrs of them) to the StringBuilder sb.
+     * Add the text representation of all the resource records of a section to the StringBuilder sb.
      *
      * @param kind Label used to kind of resource record (which section are we looking at)
-     * @param nrrs Number of resource records
+     * @param rrs The resource records of the section
      * @param sb Collects the string representations
      */
-    private void showRRs(String kind, int nrrs, StringBuilder sb) {
-        sb.append(kind).append(" [").append(nrrs).append("]\n"); //Types the first line EG: Name Servers [13]
-        for (int i = 0; i < nrrs; i++) {
-            ResourceRecord rr = getRR();
+    private void showRRs(String kind, SectionView rrs, StringBuilder sb) {
+        sb.append(kind).append(" [").append(rrs.size()).append("]\n"); //Types the first line EG: Name Servers [13]
+        for (int i = 0; i < rrs.size(); i++) {
+            RecordSlice slice = rrs.get(i);
+            Object rr = slice.getTypeCode() == RecordType.OPT.getCode() ? OPTRecord.from(slice) : slice.toResourceRecord();
             sb.append('[').append(i).append(']').append(' ').append(rr).append('\n');
         }
     }
@@ -297,14 +523,12 @@ public class DNSMessage {
 
         String domainname = getName();
 
-        //Making Type object
-        RecordType Rtype = RecordType.getByCode(this.buffer.getShort());
-
-        //Making Class object
-        RecordClass Ctype = RecordClass.getByCode(this.buffer.getShort());
+        // Type and class codes are unsigned 16-bit values, kept as they are even when they are not known
+        int typeCode = this.buffer.getShort() & 0xFFFF;
+        int classCode = this.buffer.getShort() & 0xFFFF;
 
         //Making DNSQuestion object
-        DNSQuestion result = new DNSQuestion(domainname, Rtype, Ctype);
+        DNSQuestion result = new DNSQuestion(domainname, typeCode, classCode);
 
         return result;
     }
@@ -316,80 +540,27 @@ public class DNSMessage {
      * @return The decoded resource record
      */
     public ResourceRecord getRR() {
+        return getRecordSlice().toResourceRecord();
+    }
 
-        String resourcename = getName(); // question.hostname
-        RecordType type = RecordType.getByCode(this.buffer.getShort()); //question.type
-        RecordClass cclass = RecordClass.getByCode(this.buffer.getShort());
-
-        //Making DNSQuestion object
-        DNSQuestion ques = new DNSQuestion(resourcename, type, cclass);
-
-        if(ques.getRecordType() == RecordType.A){
-            int ttl = this.buffer.getInt();
-            short rdlen = this.buffer.getShort();
-
-            int address = this.buffer.getInt();
-
-            ByteBuffer buf = ByteBuffer.allocate(4);         //This was not working no matter what, I took help from here https://stackoverflow.com/questions/1936857/convert-integer-into-byte-array-java
-            buf.putInt(address);
-            byte[] addressinbytes = buf.array();
-            InetAddress res = null;
-            try {
-                res = InetAddress.getByAddress(addressinbytes);
-                ResourceRecord result = new ResourceRecord(ques,ttl, res);
-                return result;
-
-            } catch (UnknownHostException e) {
-                System.out.println("ERROR");
-                e.printStackTrace();
-            }
-            return null;
-        }
-        else if(ques.getRecordType() == RecordType.AAAA){
-            int ttl = this.buffer.getInt();
-            short rdlen = this.buffer.getShort();
-
-            //I agree this is not a smart way to do it, but for some reason, but due to lack of time, this is what worked for me.
-            //I'll make it better before PA2.2!
-            int block1 = this.buffer.getInt();
-            int block2 = this.buffer.getInt();
-            int block3 = this.buffer.getInt();
-            int block4 = this.buffer.getInt();
-            ByteBuffer buf = ByteBuffer.allocate(16);         //This was not working no matter what, I took help from here https://stackoverflow.com/questions/1936857/convert-integer-into-byte-array-java
-            buf.putInt(block1);
-            buf.putInt(block2);
-            buf.putInt(block3);
-            buf.putInt(block4);
-
-            byte[] addressinbytes = buf.array();
-
-            InetAddress res = null;
-            try {
-                res = InetAddress.getByAddress(addressinbytes);
-                ResourceRecord result = new ResourceRecord(ques,ttl, res);
-                return result;
+    /**
+     * Decode the header of the resource record that appears next in the message, and move the position past the
+     * record using its RDLENGTH. The owner name and the RDATA are only decoded if the returned slice is asked for
+     * them, so this is the cheap way to look at a record's type, class or TTL.
+     *
+     * @return A slice describing the record
+     */
+    public RecordSlice getRecordSlice() {
+        RecordSlice slice = new RecordSlice(buffer, buffer.position());
+        buffer.position(slice.getEnd());
+        return slice;
+    }
 
-            } catch (UnknownHostException e) {
-                System.out.println("ERROR");
-                e.printStackTrace();
-            }
-            return null;
-        }
-        else if(ques.getRecordType() == RecordType.MX){
-            int ttl = this.buffer.getInt();
-            short rdlen = this.buffer.getShort();
-            short pref = this.buffer.getShort();
-            String Rdata = getName();
-            ResourceRecord result = new ResourceRecord(ques,ttl, Rdata);
-            return result;
-        }
-        else{
-            int ttl = this.buffer.getInt();
-            short rdlen = this.buffer.getShort();
-            String Rdata = getName();
-            ResourceRecord result = new ResourceRecord(ques,ttl, Rdata);
-            return result;
-        }
+    /**
+     * Move the position past the resource record that appears next in the message, without decoding it.
+     */
+    public void skipRR() {
+        buffer.position(RecordSlice.end(buffer, buffer.position()));
     }
 
     /**
@@ -399,36 +570,68 @@ public class DNSMessage {
      * @param data a byte array containing the record data.
      * @return A string containing the hex value of every byte in the data.
      */
-    private static String byteArrayToHexString(byte[] data) {
-        return IntStream.range(0, data.length).mapToObj(i -> String.format("%02x", data[i])).reduce("", String::concat);
+    static String byteArrayToHexString(byte[] data) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            hex[2 * i] = digits[(data[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[data[i] & 0xF];
+        }
+        return new String(hex);
     }
 
     /**
      * Add an encoded name to the message. It is added at the current position and uses compression
      * as much as possible.  Compression is accomplished by remembering the position of every added
-     * label.
+     * label, in a table keyed by suffix hash (see CompressionTable).  Suffixes match regardless of case.
      *
      * @param name The name to be added
      */
     public void addName(String name) {
-        String label;
-        while (name.length() > 0) {
-            Integer offset = nameToPosition.get(name);
-            if (offset != null) {
-                int pointer = offset;
-                pointer |= 0xc000;
-                buffer.putShort((short)pointer);
+        DNSName.toWire(name, compression().wire);
+        addWireName(compression.wire);
+    }
+
+    /**
+     * Add an encoded name to the message, at the current position, using compression as much as possible.
+     *
+     * @param name The name to be added
+     */
+    public void addName(DNSName name) {
+        compression();
+        addWireName(name.wire());
+    }
+
+    private CompressionTable compression() {
+        if (compression == null) compression = new CompressionTable();
+        return compression;
+    }
+
+    /**
+     * Add a name, given in uncompressed wire format, to the message. The hash of every suffix is computed in one
+     * right-to-left pass; then, from the longest suffix down, the first one already in the message is replaced by a
+     * pointer, and the labels before it are copied into the message in bulk, each one remembered for later names.
+     *
+     * @param wire The name in uncompressed wire format, starting at index 0
+     */
+    private void addWireName(byte[] wire) {
+        int[] starts = compression.labelStarts;
+        int[] hashes = compression.suffixHashes;
+        int labels = 0;
+        for (int pos = 0; wire[pos] != 0; pos += wire[pos] + 1)
+            starts[labels++] = pos;
+        hashes[labels] = 0;
+        for (int i = labels - 1; i >= 0; i--)
+            hashes[i] = DNSName.hashLabel(hashes[i + 1], wire, starts[i] + 1, wire[starts[i]]);
+
+        for (int i = 0; i < labels; i++) {
+            int offset = compression.find(buffer, hashes[i], wire, starts[i]);
+            if (offset >= 0) {
+                buffer.putShort((short) (offset | 0xc000));
                 return;
-            } else {
-                nameToPosition.put(name, buffer.position());
-                int dot = name.indexOf('.');
-                label = (dot > 0) ? name.substring(0, dot) : name;
-                buffer.put((byte)label.length());
-                for (int j = 0; j < label.length(); j++) {
-                    buffer.put((byte)label.charAt(j));
-                }
-                name = (dot > 0) ? name.substring(dot + 1) : "";
             }
+            compression.put(hashes[i], buffer.position());
+            buffer.put(wire, starts[i], wire[starts[i]] + 1);
         }
         buffer.put((byte)0);
     }
@@ -439,79 +642,231 @@ public class DNSMessage {
      */
     public void addQuestion(DNSQuestion question) {
 
-        setQDCount( (getQDCount()+1) ); // Incrementing QDCount by 1.
+        if (getANCount() + getNSCount() + getARCount() > 0)
+            throw new IllegalStateException("Can't add questions after resource records");
 
+        while (true) {
+            setQDCount( (getQDCount()+1) ); // Incrementing QDCount by 1.
 
-        //addName(byteArrayToHexString(question.getHostName().getBytes()));   // For the longest time, I was passing this to add name and couldn't figure out why.
-                                                                                //Confusion arose because addName() says it adds an "encoded" name.
+            int start = this.buffer.position();
+            int mark = compression().mark();
+            try {
+                //addName(byteArrayToHexString(question.getHostName().getBytes()));   // For the longest time, I was passing this to add name and couldn't figure out why.
+                                                                                        //Confusion arose because addName() says it adds an "encoded" name.
 
-        addName(question.getHostName());
+                addName(question.getHostName());
 
-        this.buffer.putShort((short) question.getRecordType().getCode());
-        this.buffer.putShort((short) question.getRecordClass().getCode());
+                addQType(question.getTypeCode());
+                addQClass(question.getClassCode());
+                return;
+            } catch (BufferOverflowException e) {
+                if (!undoAdd(DNSSection.QUESTION, start, mark)) throw e;
+            }
+        }
     }
 
     /**
-     * Add an encoded resource record to the message at the current position.
+     * Add an encoded resource record to the additional section of the message, at the current position.
      * @param rr The resource record to be added
      */
     public void addResourceRecord(ResourceRecord rr) {
+        addResourceRecord(DNSSection.ADDITIONAL, rr);
+    }
 
-        setARCount((getARCount() + 1));
+    /**
+     * Add an encoded resource record to the given section of the message, at the current position, and count it in
+     * that section. Since sections follow each other in the message, records must be added in section order: answers,
+     * then authority records, then additional records. DNSMessageBuilder takes care of that.
+     * @param section The section the record belongs to
+     * @param rr The resource record to be added
+     */
+    public void addResourceRecord(DNSSection section, ResourceRecord rr) {
 
-        if(rr.getRecordType() == RecordType.MX){
+        checkSectionOrder(section);
+        while (true) {
+            setCount(section, getCount(section) + 1);
 
-            addName(rr.getHostName());
-            addQType(rr.getRecordType());
-            addQClass(rr.getRecordClass());
-            this.buffer.putInt((int) rr.getRemainingTTL());
-            this.buffer.putShort((short) rr.getTextResult().length());
-            this.buffer.putShort((short)0);
-            addName(rr.getTextResult());
+            int start = this.buffer.position();
+            int mark = compression().mark();
+            try {
+                addName(rr.getHostName());
+                addQType(rr.getQuestion().getTypeCode());
+                addQClass(rr.getQuestion().getClassCode());
+                this.buffer.putInt((int) rr.getRemainingTTL());
+                addRData(rr);
+                return;
+            } catch (BufferOverflowException e) {
+                if (!undoAdd(section, start, mark)) throw e;
+            }
         }
-        else if(rr.getRecordType() == RecordType.A){
-            addName(rr.getHostName());
-            addQType(rr.getRecordType());
-            addQClass(rr.getRecordClass());
-            this.buffer.putInt((int) rr.getRemainingTTL());
-            this.buffer.putShort((short) 4);
-            byte[] bytes = rr.getInetResult().getAddress();             //Disclosure, took this from https://stackoverflow.com/questions/2984601/how-to-get-a-byte-representation-from-a-ip-in-string-form-in-java
-            this.buffer.put(bytes);
+    }
+
+    /**
+     * Add an EDNS(0) OPT pseudo-record to the additional section of the message, at the current position. A message
+     * can only have one, and it should be added last, once the rest of the message has been packed into
+     * getMaxLength() minus opt.length() bytes, so that it is not the record that gets dropped.
+     * @param opt The OPT record to be added
+     */
+    public void addOPTRecord(OPTRecord opt) {
+        checkSectionOrder(DNSSection.ADDITIONAL);
+        while (true) {
+            setARCount(getARCount() + 1);
+
+            int start = this.buffer.position();
+            int mark = compression().mark();
+            try {
+                opt.writeTo(this.buffer);
+                return;
+            } catch (BufferOverflowException e) {
+                if (!undoAdd(DNSSection.ADDITIONAL, start, mark)) throw e;
+            }
         }
-        else if(rr.getRecordType() == RecordType.AAAA){
-            addName(rr.getHostName());
-            addQType(rr.getRecordType());
-            addQClass(rr.getRecordClass());
-            this.buffer.putInt((int) rr.getRemainingTTL());
-            this.buffer.putShort((short) 16);
-            byte[] bytes = rr.getInetResult().getAddress();             //Disclosure, took this from https://stackoverflow.com/questions/2984601/how-to-get-a-byte-representation-from-a-ip-in-string-form-in-java
-            this.buffer.put(bytes);
+    }
+
+    /**
+     * @return The message's EDNS(0) OPT pseudo-record, or null if the message has none.
+     * @throws IllegalArgumentException if the OPT record is malformed
+     */
+    public OPTRecord getOPTRecord() {
+        SectionView additional = additional();
+        for (int i = 0; i < additional.size(); i++) {
+            RecordSlice slice = additional.get(i);
+            if (slice.getTypeCode() == RecordType.OPT.getCode()) return OPTRecord.from(slice);
         }
-        else{
-            addName(rr.getHostName());
-            addQType(rr.getRecordType());
-            addQClass(rr.getRecordClass());
-            this.buffer.putInt((int) rr.getRemainingTTL());
-            this.buffer.putShort((short) rr.getTextResult().length());
+        return null;
+    }
+
+    /**
+     * @return The 12 bit response code: the header's rcode, extended with the upper 8 bits held in the OPT record.
+     */
+    public int getExtendedRcode() {
+        OPTRecord opt = getOPTRecord();
+        return opt == null ? getRcode() : opt.getExtendedRcode() << 4 | getRcode();
+    }
+
+    private void checkSectionOrder(DNSSection section) {
+        if (section == DNSSection.QUESTION)
+            throw new IllegalArgumentException("Resource records can't be added to the question section");
+        for (int later = section.getCountOffset() + 2; later <= DNSSection.ADDITIONAL.getCountOffset(); later += 2)
+            if (this.buffer.getShort(later) != 0)
+                throw new IllegalStateException("Can't add " + section + " records after records of a later section");
+    }
+
+    /**
+     * Add a resource record to the given section if it fits within the message's maximum length, as
+     * addResourceRecord(section, rr) does.
+     * @param section The section the record belongs to
+     * @param rr The resource record to be added
+     * @return true if the record was added, false if it did not fit and the message was left unchanged
+     */
+    public boolean tryAddResourceRecord(DNSSection section, ResourceRecord rr) {
+        try {
+            addResourceRecord(section, rr);
+            return true;
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove what was written of an entry that did not fit in the message: move the position back to where the entry
+     * started, forget the names it added to the compression table, and uncount it. Then grow the message's buffer if
+     * the maximum length allows it.
+     * @return true if the buffer was grown, so that the entry can be written again
+     */
+    private boolean undoAdd(DNSSection section, int start, int compressionMark) {
+        this.buffer.position(start);
+        compression.rollback(compressionMark);
+        setCount(section, getCount(section) - 1);
+        return grow();
+    }
+
+    /**
+     * Replace the message's own buffer with one twice as large (but no larger than the maximum length), keeping
+     * everything written so far at the same offsets, so that the compression table stays valid.
+     * @return false if the buffer can't grow: it is already as large as allowed, or it holds a received message
+     */
+    private boolean grow() {
+        if (this.buffer != ownBuffer || this.buffer.capacity() >= maxLength) return false;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(maxLength, 2 * this.buffer.capacity()));
+        bigger.put(0, this.buffer, 0, this.buffer.position());
+        bigger.position(this.buffer.position());
+        this.buffer = ownBuffer = bigger;
+        return true;
+    }
+
+    /**
+     * Set the maximum length of the message being built, which is MAX_DNS_MESSAGE_LENGTH unless changed. The buffer
+     * starts at MAX_DNS_MESSAGE_LENGTH bytes and grows as needed up to the maximum length, e.g. to fill the payload
+     * size advertised in an OPT record, or a TCP response. Adding a question or resource record that does not fit
+     * throws BufferOverflowException, and leaves the message exactly as it was before the call.
+     * @param maxLength The maximum length of the message, at most MAX_MESSAGE_LENGTH
+     */
+    public void setMaxLength(int maxLength) {
+        if (maxLength > MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("Messages can't be longer than " + MAX_MESSAGE_LENGTH + " bytes");
+        if (maxLength < this.buffer.position())
+            throw new IllegalArgumentException("Message is already longer than " + maxLength + " bytes");
+        this.maxLength = maxLength;
+        if (this.buffer == ownBuffer) this.buffer.limit(Math.min(maxLength, this.buffer.capacity()));
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Add the encoded RDLENGTH and RDATA of a resource record at the current position. RDLENGTH is filled in after
+     * the RDATA has been written, since the length of a compressed name is only known once it has been added.
+     * @param rr The resource record whose data is to be added
+     */
+    private void addRData(ResourceRecord rr) {
+        int lengthPosition = this.buffer.position();
+        this.buffer.putShort((short) 0);
+        byte[] rawData = rr.getRawData();
+        if (rawData != null && rr.getRecordType() == RecordType.MX && isUncompressedName(rawData, 2)) {
+            // The preference as it is, and the exchange compressed like any other name
+            this.buffer.put(rawData, 0, 2);
+            byte[] wire = compression().wire;
+            System.arraycopy(rawData, 2, wire, 0, rawData.length - 2);
+            addWireName(wire);
+        } else if (rawData != null) {
+            this.buffer.put(rawData);
+        } else if (rr.getRecordType() == RecordType.A || rr.getRecordType() == RecordType.AAAA) {
+            rr.writeAddress(this.buffer);
+        } else {
             addName(rr.getTextResult());
         }
+        this.buffer.putShort(lengthPosition, (short) (this.buffer.position() - lengthPosition - 2));
+    }
+
+    /**
+     * @return true if the bytes from start to the end of the array are exactly one uncompressed name in wire format, no
+     * longer than MAX_NAME_LENGTH
+     */
+    static boolean isUncompressedName(byte[] data, int start) {
+        for (int pos = start; pos < data.length && pos - start < DNSName.MAX_NAME_LENGTH; pos += data[pos] + 1) {
+            if (data[pos] == 0) return pos == data.length - 1;
+            if (data[pos] < 0 || data[pos] > DNSName.MAX_LABEL_LENGTH) return false;
+        }
+        return false;
     }
 
     /**
      * Add an encoded type to the message at the current position.
-     * @param recordType The type to be added
+     * @param typeCode The numeric code of the type to be added
      */
-    private void addQType(RecordType recordType) {
+    private void addQType(int typeCode) {
 
-        this.buffer.putShort((short) recordType.getCode());
+        this.buffer.putShort((short) typeCode);
     }
 
     /**
      * Add an encoded class to the message at the current position.
-     * @param recordClass The class to be added
+     * @param classCode The numeric code of the class to be added
      */
-    private void addQClass(RecordClass recordClass) {
-        this.buffer.putShort((short) recordClass.getCode());
+    private void addQClass(int classCode) {
+        this.buffer.putShort((short) classCode);
     }
 
     /**
@@ -520,20 +875,67 @@ public class DNSMessage {
      * @return A byte array containing this message's data
      */
     public byte[] getUsed() {
+        byte[] result = new byte[this.buffer.position()];
+        this.buffer.get(0, result);
+        return result;
+    }
+
+    /**
+     * Return a read-only view of the data comprising this message, from the header up to the current position. The
+     * view shares the message's buffer, so nothing is copied, but it is only valid until the message is changed,
+     * reset or rewrapped.
+     *
+     * @return A read-only buffer whose remaining bytes are this message's data
+     */
+    public ByteBuffer asByteBuffer() {
+        ByteBuffer view = this.buffer.asReadOnlyBuffer();
+        view.flip();
+        return view;
+    }
 
-        //Again, this is not the smartest way to do it, as I did more of the assignment, I understood that, but due to lack of time, I have left it as it is since it functions.
+    /**
+     * @return A read-only view of the whole message, from the header to getLength(), which is only valid until the
+     * message is changed, reset or rewrapped.
+     */
+    ByteBuffer asWholeBuffer() {
+        ByteBuffer view = this.buffer.asReadOnlyBuffer();
+        view.limit(getLength()).position(0);
+        return view;
+    }
+
+    /**
+     * Copy the data comprising this message (as returned by getUsed()) into dst at its current position, and
+     * advance dst's position past it. Nothing is allocated.
+     *
+     * @param dst The buffer to write the message to
+     * @throws java.nio.BufferOverflowException if dst does not have enough space remaining
+     */
+    public void writeTo(ByteBuffer dst) {
         int len = this.buffer.position();
-        byte[] result = new byte[len];
-        byte thisbyte;
-        this.buffer.position(0);
-        int i = 0;
-        while(i < len){
-
-            thisbyte = this.buffer.get();
-            result[i] = thisbyte;
-            i = i + 1;
+        if (dst.remaining() < len) throw new BufferOverflowException();
+        dst.put(dst.position(), this.buffer, 0, len);
+        dst.position(dst.position() + len);
+    }
+
+    /**
+     * Write the data comprising this message (as returned by getUsed()) straight from the message's buffer to the
+     * channel. Writing stops early if the channel does not accept any more bytes, as a non-blocking channel may do;
+     * for a DatagramChannel the whole message is sent as one datagram, or not at all.
+     *
+     * @param channel The channel to write the message to
+     * @return The number of bytes written
+     * @throws IOException if the channel fails
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer src = this.buffer.duplicate();
+        src.flip();
+        int total = 0;
+        while (src.hasRemaining()) {
+            int written = channel.write(src);
+            if (written == 0) break;
+            total += written;
         }
-        return result;
+        return total;
     }
 
     /**
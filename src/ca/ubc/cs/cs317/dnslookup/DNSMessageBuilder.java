@@ -0,0 +1,224 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the questions and resource records of a message section by section, in any order, and then encodes them
+ * into a DNSMessage in wire order: questions, answers, authority records and additional records. The header counts
+ * are set from what was actually written, every RDLENGTH is computed from the encoded RDATA, and all names in the
+ * message, in every section, share one compression table, so the encoded message is as small as the codec can make it.
+ * A record that is added twice to the same section is only written once.
+ *
+ * Messages are built within a byte budget, MAX_DNS_MESSAGE_LENGTH (the UDP limit) unless setMaxLength() says
+ * otherwise. Records are added in priority order, and a record that does not fit is removed whole, so the message is
+ * always valid. If an answer or authority record is dropped, nothing more is added and the TC flag is set so that the
+ * client can retry over TCP. Additional records are only hints (RFC 2181, section 9), so those that do not fit are
+ * skipped without setting TC.
+ *
+ * An EDNS(0) OPT record set with setOPTRecord() is always written last, and room is kept for it within the budget.
+ * The budget is not derived from the OPT record: a client builds queries within 512 bytes whatever payload size it
+ * advertises, while a server sets the budget to the payload size its client advertised.
+ *
+ * Header flags other than the counts and TC are left for the caller to set on the built message.
+ */
+public class DNSMessageBuilder {
+    private int id;
+    private int maxLength = DNSMessage.MAX_DNS_MESSAGE_LENGTH;
+    private boolean minimalResponses;
+    private OPTRecord opt;
+    private final List<DNSQuestion> questions = new ArrayList<>();
+    // Sets in the order records were added, so that duplicates are found in constant time
+    private final Set<ResourceRecord> answers = new LinkedHashSet<>();
+    private final Set<ResourceRecord> authority = new LinkedHashSet<>();
+    private final Set<ResourceRecord> additional = new LinkedHashSet<>();
+
+    /**
+     * @param id The id of the messages to be built.
+     */
+    public DNSMessageBuilder(int id) {
+        this.id = id;
+    }
+
+    public DNSMessageBuilder setID(int id) {
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * @param maxLength The maximum length of the messages to be built, in bytes
+     * @return This builder
+     * @throws IllegalArgumentException if the maximum length can't hold a header and the OPT record, if any
+     */
+    public DNSMessageBuilder setMaxLength(int maxLength) {
+        if (maxLength > DNSMessage.MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("Messages can't be longer than " + DNSMessage.MAX_MESSAGE_LENGTH + " bytes");
+        checkRoom(maxLength, opt);
+        this.maxLength = maxLength;
+        return this;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * When set, only the records a client needs are written: a response with answers gets no authority or additional
+     * records, and a response without answers (a referral or a negative response) keeps its authority records but
+     * only the address records of its additional section.
+     *
+     * @param minimalResponses Whether non-essential records are left out
+     * @return This builder
+     */
+    public DNSMessageBuilder setMinimalResponses(boolean minimalResponses) {
+        this.minimalResponses = minimalResponses;
+        return this;
+    }
+
+    public boolean getMinimalResponses() {
+        return minimalResponses;
+    }
+
+    /**
+     * @param opt The OPT record to add to the messages, or null for messages without EDNS
+     * @return This builder
+     * @throws IllegalArgumentException if the maximum length can't hold a header and the OPT record
+     */
+    public DNSMessageBuilder setOPTRecord(OPTRecord opt) {
+        checkRoom(maxLength, opt);
+        this.opt = opt;
+        return this;
+    }
+
+    public OPTRecord getOPTRecord() {
+        return opt;
+    }
+
+    public DNSMessageBuilder addQuestion(DNSQuestion question) {
+        questions.add(question);
+        return this;
+    }
+
+    public DNSMessageBuilder addAnswer(ResourceRecord rr) {
+        return add(answers, rr);
+    }
+
+    public DNSMessageBuilder addAuthority(ResourceRecord rr) {
+        return add(authority, rr);
+    }
+
+    public DNSMessageBuilder addAdditional(ResourceRecord rr) {
+        return add(additional, rr);
+    }
+
+    /**
+     * Adds a resource record to the given section.
+     *
+     * @param section The section the record belongs to, other than QUESTION
+     * @param rr      The resource record to be added
+     * @return This builder
+     */
+    public DNSMessageBuilder add(DNSSection section, ResourceRecord rr) {
+        return add(records(section), rr);
+    }
+
+    private DNSMessageBuilder add(Set<ResourceRecord> section, ResourceRecord rr) {
+        section.add(rr);
+        return this;
+    }
+
+    private Set<ResourceRecord> records(DNSSection section) {
+        switch (section) {
+            case ANSWER:
+                return answers;
+            case AUTHORITY:
+                return authority;
+            case ADDITIONAL:
+                return additional;
+            default:
+                throw new IllegalArgumentException("Resource records can't be added to the question section");
+        }
+    }
+
+    /**
+     * Removes every question and resource record, so that the builder can be reused for another message.
+     *
+     * @return This builder
+     */
+    public DNSMessageBuilder clear() {
+        questions.clear();
+        answers.clear();
+        authority.clear();
+        additional.clear();
+        return this;
+    }
+
+    /**
+     * @return A new message containing everything added to this builder.
+     */
+    public DNSMessage build() {
+        DNSMessage message = new DNSMessage((short) id);
+        build(message);
+        return message;
+    }
+
+    /**
+     * Resets the given message (for instance, one taken from a DNSMessagePool) and encodes everything added to this
+     * builder into it, within the builder's byte budget.
+     *
+     * @param message The message to be filled
+     * @throws BufferOverflowException if the questions alone do not fit in the budget
+     */
+    public void build(DNSMessage message) {
+        message.reset(id);
+        message.setMaxLength(opt == null ? maxLength : maxLength - opt.length());
+        try {
+            addSections(message);
+        } finally {
+            message.setMaxLength(maxLength);
+        }
+        if (opt != null) message.addOPTRecord(opt);
+    }
+
+    private void addSections(DNSMessage message) {
+        for (DNSQuestion question : questions)
+            message.addQuestion(question);
+        boolean answered = !answers.isEmpty();
+        if (!addAll(message, DNSSection.ANSWER, answers)
+                || !(minimalResponses && answered) && !addAll(message, DNSSection.AUTHORITY, authority)) {
+            message.setTC(true);
+            return;
+        }
+        if (minimalResponses && answered) return;
+        for (ResourceRecord rr : additional) {
+            if (!minimalResponses || isAddress(rr))
+                message.tryAddResourceRecord(DNSSection.ADDITIONAL, rr);
+        }
+    }
+
+    /**
+     * @return true if every record was added, false if one did not fit (the records after it are not tried)
+     */
+    private static boolean addAll(DNSMessage message, DNSSection section, Collection<ResourceRecord> records) {
+        for (ResourceRecord rr : records) {
+            if (!message.tryAddResourceRecord(section, rr)) return false;
+        }
+        return true;
+    }
+
+    private static void checkRoom(int maxLength, OPTRecord opt) {
+        int optLength = opt == null ? 0 : opt.length();
+        if (maxLength - optLength < DNSPeek.HEADER_LENGTH)
+            throw new IllegalArgumentException("Maximum length " + maxLength + " can't hold a header"
+                    + (opt == null ? "" : " and a " + optLength + "-byte OPT record"));
+    }
+
+    private static boolean isAddress(ResourceRecord rr) {
+        RecordType type = rr.getRecordType();
+        return type == RecordType.A || type == RecordType.AAAA;
+    }
+}
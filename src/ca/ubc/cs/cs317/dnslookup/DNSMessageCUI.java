@@ -4,10 +4,17 @@ import java.io.Console;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public class DNSMessageCUI {
     private DNSMessage message;
@@ -107,6 +114,14 @@ public class DNSMessageCUI {
                     System.out.println("Message is now: ");
                     System.out.println(message);
                 }
+            } else if (commandArgs[0].equalsIgnoreCase("batch")) {
+                // Look up every question in a file, printing the results as they come in
+                if (commandArgs.length == 3 || commandArgs.length == 4) {
+                    doBatch(commandArgs);
+                } else {
+                    System.out.println("Invalid call. Format:\n" +
+                            "\tbatch <filename> <server>[:port] [concurrency]");
+                }
             } else if (commandArgs[0].equalsIgnoreCase("show") ||
                     commandArgs[0].equalsIgnoreCase("print")) {
                 // SHOW: Print the message
@@ -120,6 +135,9 @@ public class DNSMessageCUI {
                 System.err.println("\tnew [id]");
                 System.err.println("\tadd question name type");
                 System.err.println("\tadd resource name type value");
+                System.err.println("\tadd answer|authority|additional name type value");
+                System.err.println("\tadd edns [payloadsize]");
+                System.err.println("\tbatch <filename> <server>[:port] [concurrency]");
                 System.err.println("\tshow or print");
                 System.err.println("\tquit");
             }
@@ -128,21 +146,53 @@ public class DNSMessageCUI {
         System.out.println("Goodbye!");
     }
 
+    private void doBatch(String[] commandArgs) {
+        int concurrency;
+        InetSocketAddress server;
+        try {
+            concurrency = commandArgs.length == 4 ? Integer.parseInt(commandArgs[3]) : BulkLookup.DEFAULT_CONCURRENCY;
+            String[] hostPort = commandArgs[2].split(":", 2);
+            server = new InetSocketAddress(InetAddress.getByName(hostPort[0]),
+                    hostPort.length == 2 ? Integer.parseInt(hostPort[1]) : 53);
+        } catch (NumberFormatException | UnknownHostException e) {
+            System.err.println("Invalid call. Format:\n\tbatch <filename> <server>[:port] [concurrency]");
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        long start = System.nanoTime();
+        try (Stream<String> lines = Files.lines(Paths.get(commandArgs[1]));
+             AsyncDNSClient client = new AsyncDNSClient(server)) {
+            Iterable<DNSQuestion> questions = lines.map(line -> BulkLookup.parse(line, System.err::println))
+                    .filter(Objects::nonNull)::iterator;
+            new BulkLookup(client, concurrency).run(questions, result -> {
+                System.out.println(result);
+                count.incrementAndGet();
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Can't read file \"" + commandArgs[1] + "\"");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage()); // e.g. a concurrency below 1
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(count.get() + " lookups in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
     private DNSMessage readFromFile(String filename) throws IOException {
-        byte[] buf = new byte[512];
+        byte[] buf;
         int len;
         try (FileInputStream f = new FileInputStream(filename)) {
-            len = f.read(buf); // Reads upto buf.length bytes of data from input stream, buf.length = 512
+            buf = f.readNBytes(DNSMessage.MAX_MESSAGE_LENGTH); // Reads upto 65535 bytes, enough for EDNS and TCP messages
+            len = buf.length;
             //f is the file that is being read. buf is the buffer that we are reading into, len is the actual length of the buffer.
             return new DNSMessage(buf, len);
         }
     }
 
     private void writeToFile(String filename) throws IOException {
-        byte[] buf = message.getUsed();
         try (FileOutputStream f = new FileOutputStream(filename)) {
-            f.write(buf, 0, buf.length);
-            System.out.println("Wrote " + buf.length + " bytes to \"" + filename + "\"");
+            int len = message.writeTo(f.getChannel());
+            System.out.println("Wrote " + len + " bytes to \"" + filename + "\"");
         }
     }
 
@@ -159,7 +209,7 @@ public class DNSMessageCUI {
                 String typestr = commandArgs[3];
                 RecordType type = RecordType.valueOf(typestr.toUpperCase());
                 DNSQuestion question = new DNSQuestion(name, type, RecordClass.IN);
-                if (message.getARCount() > 0) {
+                if (message.getANCount() + message.getNSCount() + message.getARCount() > 0) {
                     System.err.println("Can't add questions after resource records");
                     return false;
                 }
@@ -168,9 +218,12 @@ public class DNSMessageCUI {
             case "rr":
             case "resource":
             case "resourcerecord":
+            case "answer":
+            case "authority":
+            case "additional":
                 try {
                     if (commandArgs.length != 5) {
-                        System.err.println("Invalid call. Format:\n\tadd resource name type value");
+                        System.err.println("Invalid call. Format:\n\tadd resource|answer|authority|additional name type value");
                         return false;
                     }
                     name = commandArgs[2];
@@ -185,12 +238,32 @@ public class DNSMessageCUI {
                     } else {
                         rr = new ResourceRecord(question, 3600, valuestr);
                     }
-                    message.addResourceRecord(rr);
+                    message.addResourceRecord(sectionFor(thing), rr);
+                } catch (IllegalStateException e) {
+                    System.err.println(e.getMessage());
+                    return false;
                 } catch (Exception e) {
                     System.err.println("Bad argument");
                     return false;
                 }
                 break;
+            case "edns":
+            case "opt":
+                try {
+                    int size = commandArgs.length == 3 ? Integer.parseInt(commandArgs[2]) : OPTRecord.DEFAULT_PAYLOAD_SIZE;
+                    OPTRecord opt = new OPTRecord(size);
+                    message.addOPTRecord(opt);
+                    // The message may now be as long as the payload size it advertises
+                    if (opt.getPayloadSize() > message.getMaxLength())
+                        message.setMaxLength(opt.getPayloadSize());
+                } catch (IllegalStateException e) {
+                    System.err.println(e.getMessage());
+                    return false;
+                } catch (Exception e) {
+                    System.err.println("Invalid call. Format:\n\tadd edns [payloadsize]");
+                    return false;
+                }
+                break;
             default:
                 System.err.println("Bad argument to add \"" + thing + "\"");
                 return false;
@@ -198,6 +271,17 @@ public class DNSMessageCUI {
         return true;
     }
 
+    private static DNSSection sectionFor(String thing) {
+        switch (thing) {
+            case "answer":
+                return DNSSection.ANSWER;
+            case "authority":
+                return DNSSection.AUTHORITY;
+            default:
+                return DNSSection.ADDITIONAL;
+        }
+    }
+
     private InetAddress inetAddress(String valuestr) throws UnknownHostException {
         return InetAddress.getByName(valuestr);
     }
@@ -0,0 +1,87 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A per-thread pool of DNSMessage instances, so that a send/receive loop can reuse the same messages (and their
+ * buffers) instead of allocating new ones for every query and every response.
+ *
+ * Each thread has its own free list, so acquiring and releasing never contend. A message may be released by a
+ * different thread than the one that acquired it; it then joins the releasing thread's free list. At most
+ * maxPerThread idle messages are kept per thread, and any extra released messages are left to the garbage collector.
+ */
+public class DNSMessagePool {
+    public static final int DEFAULT_MAX_PER_THREAD = 64;
+
+    private final int maxPerThread;
+    private final ThreadLocal<ArrayDeque<DNSMessage>> free;
+
+    public DNSMessagePool() {
+        this(DEFAULT_MAX_PER_THREAD);
+    }
+
+    /**
+     * @param maxPerThread The maximum number of idle messages kept for each thread.
+     */
+    public DNSMessagePool(int maxPerThread) {
+        if (maxPerThread < 0) throw new IllegalArgumentException("maxPerThread must not be negative");
+        this.maxPerThread = maxPerThread;
+        this.free = ThreadLocal.withInitial(() -> new ArrayDeque<>(maxPerThread));
+    }
+
+    /**
+     * Returns an empty message with the given id, ready for questions and resource records to be added. Its maximum
+     * length is the default, whatever the message was used with before.
+     *
+     * @param id The id of the message.
+     * @return An empty message, reused from the pool if one is available
+     */
+    public DNSMessage acquire(int id) {
+        DNSMessage message = free.get().pollFirst();
+        if (message == null) return new DNSMessage((short) id);
+        message.reset(id);
+        message.setMaxLength(DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+        return message;
+    }
+
+    /**
+     * Returns a message wrapping a received message, held in length bytes of recvd starting at offset.
+     *
+     * @param recvd  The byte array containing the received message
+     * @param offset The offset of the message's header in the array
+     * @param length The length of the message
+     * @return A message for decoding the data, reused from the pool if one is available
+     */
+    public DNSMessage acquire(byte[] recvd, int offset, int length) {
+        DNSMessage message = free.get().pollFirst();
+        if (message == null) message = new DNSMessage((short) 0);
+        message.rewrap(recvd, offset, length);
+        message.setMaxLength(DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+        return message;
+    }
+
+    /**
+     * Returns a message wrapping a received message, held in the remaining bytes of recvd.
+     *
+     * @param recvd The buffer holding the received message, from its position to its limit
+     * @return A message for decoding the data, reused from the pool if one is available
+     */
+    public DNSMessage acquire(ByteBuffer recvd) {
+        DNSMessage message = free.get().pollFirst();
+        if (message == null) message = new DNSMessage((short) 0);
+        message.rewrap(recvd);
+        message.setMaxLength(DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+        return message;
+    }
+
+    /**
+     * Returns a message to the pool. The message must not be used by the caller after it has been released.
+     *
+     * @param message The message to be released
+     */
+    public void release(DNSMessage message) {
+        ArrayDeque<DNSMessage> list = free.get();
+        if (list.size() < maxPerThread) list.addFirst(message);
+    }
+}
@@ -0,0 +1,288 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A domain name kept in uncompressed wire format: a sequence of length-prefixed labels ending with the zero-length
+ * root label. Names are decoded straight out of a message into a single compact byte array, without building a String
+ * per label or per suffix. The text form is only built when toString() is called, and is then remembered.
+ *
+ * As in the DNS itself, names compare case-insensitively (for ASCII letters). The hash code is computed once and
+ * cached, and is built from the hash of the name's suffix, so that the hash of every suffix of a name can be obtained
+ * in a single right-to-left pass over its labels (see hashLabel).
+ */
+public final class DNSName {
+    public static final int MAX_LABEL_LENGTH = 63;
+    public static final int MAX_NAME_LENGTH = 255;
+    public static final int MAX_POINTER_HOPS = 128;
+    public static final DNSName ROOT = new DNSName(new byte[]{0});
+
+    private final byte[] wire;
+    private int hash;
+    private String text;
+
+    private DNSName(byte[] wire) {
+        this.wire = wire;
+    }
+
+    /**
+     * Returns the name corresponding to the given text, e.g. "www.example.com". A trailing dot is accepted, and the
+     * empty string or "." is the root.
+     *
+     * @param name The text form of the name
+     * @return The corresponding name
+     * @throws IllegalArgumentException if a label is empty or too long, or the name is too long
+     */
+    public static DNSName of(String name) {
+        int end = name.endsWith(".") ? name.length() - 1 : name.length();
+        if (end <= 0) return ROOT;
+        if (end + 2 > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Name too long: " + name);
+        byte[] wire = new byte[end + 2];
+        toWire(name, wire);
+        return new DNSName(wire);
+    }
+
+    /**
+     * Writes the uncompressed wire form of the given text into dst, without allocating anything.
+     *
+     * @param name The text form of the name
+     * @param dst  The array receiving the wire form, at least MAX_NAME_LENGTH bytes long or as long as the result
+     * @return The length of the wire form, including the root label
+     * @throws IllegalArgumentException if a label is empty or too long, or the name is too long
+     */
+    static int toWire(CharSequence name, byte[] dst) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '.') end--;
+        if (end <= 0) {
+            dst[0] = 0;
+            return 1;
+        }
+        if (end + 2 > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Name too long: " + name);
+        int lengthAt = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || name.charAt(i) == '.') {
+                int length = i - lengthAt;
+                if (length == 0 || length > MAX_LABEL_LENGTH)
+                    throw new IllegalArgumentException("Bad label length in name: " + name);
+                dst[lengthAt] = (byte) length;
+                lengthAt = i + 1;
+            } else {
+                dst[i + 1] = (byte) name.charAt(i);
+            }
+        }
+        dst[end + 1] = 0;
+        return end + 2;
+    }
+
+    /**
+     * Decodes the name stored at the given absolute offset in a message, following compression pointers directly in
+     * the buffer. A pointer may lead anywhere in the message, including forward into sections that have not been
+     * read, so any name can be decoded without decoding what comes before it. At most MAX_POINTER_HOPS pointers are
+     * followed and a name that grows past MAX_NAME_LENGTH is rejected, so that pointer loops in a malformed message
+     * can't make decoding loop.
+     *
+     * @param message The buffer holding the whole message, with the header at index 0
+     * @param offset  The offset of the first byte of the name
+     * @return The decoded name
+     * @throws IllegalArgumentException if the name is malformed
+     */
+    public static DNSName read(ByteBuffer message, int offset) {
+        // First pass to size the result and validate the pointers, second pass to copy the labels.
+        int length = 1;
+        int hops = 0;
+        int pos = offset;
+        for (int len = message.get(pos) & 0xff; len != 0; len = message.get(pos) & 0xff) {
+            if ((len & 0xc0) == 0xc0) {
+                if (++hops > MAX_POINTER_HOPS)
+                    throw new IllegalArgumentException("Too many compression pointers in name at offset " + offset);
+                pos = pointerTarget(message, pos);
+            } else if ((len & 0xc0) != 0) {
+                throw new IllegalArgumentException("Bad label type at offset " + pos);
+            } else {
+                length += len + 1;
+                if (length > MAX_NAME_LENGTH)
+                    throw new IllegalArgumentException("Name too long at offset " + offset);
+                pos += len + 1;
+            }
+        }
+        if (length == 1) return ROOT;
+
+        byte[] wire = new byte[length];
+        int out = 0;
+        pos = offset;
+        for (int len = message.get(pos) & 0xff; len != 0; len = message.get(pos) & 0xff) {
+            if ((len & 0xc0) == 0xc0) {
+                pos = pointerTarget(message, pos);
+            } else {
+                message.get(pos, wire, out, len + 1);
+                out += len + 1;
+                pos += len + 1;
+            }
+        }
+        return new DNSName(wire);
+    }
+
+    /**
+     * Returns the offset just past the name stored at the given offset, that is, past its terminating root label or
+     * past the first compression pointer it contains. Pointers are not followed.
+     *
+     * @param message The buffer holding the whole message
+     * @param offset  The offset of the first byte of the name
+     * @return The offset of the first byte after the name
+     * @throws IllegalArgumentException if the name runs past the end of the message
+     */
+    public static int end(ByteBuffer message, int offset) {
+        int limit = message.limit();
+        int pos = offset;
+        while (pos < limit) {
+            int len = message.get(pos) & 0xff;
+            if (len == 0) return pos + 1;
+            if ((len & 0xc0) == 0xc0) {
+                if (pos + 2 > limit) break;
+                return pos + 2;
+            }
+            pos += len + 1;
+        }
+        throw new IllegalArgumentException("Name at offset " + offset + " runs past the end of the message");
+    }
+
+    private static int pointerTarget(ByteBuffer message, int pos) {
+        int target = message.getShort(pos) & 0x3fff;
+        if (target >= message.limit())
+            throw new IllegalArgumentException("Bad compression pointer at offset " + pos);
+        return target;
+    }
+
+    /**
+     * Folds one label into the hash of the suffix that follows it. The hash of a name is the hash of its first label
+     * folded into the hash of the rest of the name, and the root hashes to 0. Letters are folded to lower case first,
+     * so that names that differ only in case have the same hash.
+     *
+     * @param suffixHash The hash of the name following the label
+     * @param data       The bytes holding the label
+     * @param offset     The offset of the first byte of the label (after its length octet)
+     * @param length     The length of the label
+     * @return The hash of the name made of the label followed by the suffix
+     */
+    static int hashLabel(int suffixHash, byte[] data, int offset, int length) {
+        int h = 31 * suffixHash + length;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + toLower(data[i]);
+        return h;
+    }
+
+    static int hashLabel(int suffixHash, ByteBuffer data, int offset, int length) {
+        int h = 31 * suffixHash + length;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + toLower(data.get(i));
+        return h;
+    }
+
+    static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static int hash(byte[] wire, int pos) {
+        int len = wire[pos];
+        if (len == 0) return 0;
+        return hashLabel(hash(wire, pos + 1 + len), wire, pos + 1, len);
+    }
+
+    /**
+     * @return The number of bytes taken by this name in uncompressed wire format, including the root label.
+     */
+    public int length() {
+        return wire.length;
+    }
+
+    /**
+     * @return The number of labels in this name, not counting the root label.
+     */
+    public int labelCount() {
+        int count = 0;
+        for (int pos = 0; wire[pos] != 0; pos += wire[pos] + 1)
+            count++;
+        return count;
+    }
+
+    /**
+     * @return The wire form of this name, which must not be modified.
+     */
+    byte[] wire() {
+        return wire;
+    }
+
+    public boolean isRoot() {
+        return wire.length == 1;
+    }
+
+    /**
+     * @return This name with its ASCII letters in lower case, which is this name itself if it has no upper case letter.
+     */
+    public DNSName toLowerCase() {
+        int i = 0;
+        while (i < wire.length && toLower(wire[i]) == wire[i])
+            i++;
+        if (i == wire.length) return this;
+        byte[] lower = new byte[wire.length];
+        for (int j = 0; j < wire.length; j++)
+            lower[j] = toLower(wire[j]);
+        DNSName name = new DNSName(lower);
+        name.hash = hash;
+        return name;
+    }
+
+    /**
+     * Writes this name, uncompressed, at the current position of the buffer.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(wire);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DNSName that = (DNSName) o;
+        if (wire.length != that.wire.length || hashCode() != that.hashCode()) return false;
+        for (int i = 0; i < wire.length; i++)
+            if (toLower(wire[i]) != toLower(that.wire[i])) return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && wire.length > 1) {
+            h = hash(wire, 0);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return The text form of the name, with labels separated by dots and no trailing dot. The root is "".
+     */
+    @Override
+    public String toString() {
+        String s = text;
+        if (s == null) {
+            if (wire.length == 1) {
+                s = "";
+            } else {
+                byte[] chars = new byte[wire.length - 2];
+                System.arraycopy(wire, 1, chars, 0, chars.length);
+                for (int pos = wire[0]; pos < chars.length; pos += wire[pos + 1] + 1)
+                    chars[pos] = '.';
+                s = new String(chars, StandardCharsets.UTF_8);
+            }
+            text = s;
+        }
+        return s;
+    }
+}
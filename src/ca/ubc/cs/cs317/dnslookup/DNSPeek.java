@@ -0,0 +1,190 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Static, allocation-free accessors for the header and the first question of a message that is still in a
+ * ByteBuffer, e.g. as received from a DatagramChannel. They let a front end route a message, match a response to an
+ * outstanding query or look up a cache before paying for a DNSMessage and a full decode.
+ *
+ * In every method the message starts at the buffer's position and ends at its limit; neither is changed.
+ */
+public final class DNSPeek {
+    public static final int HEADER_LENGTH = 12;
+
+    private DNSPeek() {
+    }
+
+    /**
+     * @param message The buffer holding the message
+     * @return true if the buffer holds at least a complete header
+     */
+    public static boolean hasHeader(ByteBuffer message) {
+        return message.remaining() >= HEADER_LENGTH;
+    }
+
+    public static int peekID(ByteBuffer message) {
+        return message.getShort(message.position()) & 0xFFFF;
+    }
+
+    /**
+     * @param message The buffer holding the message
+     * @return The 16 bits following the ID: QR, opcode, AA, TC, RD, RA, Z and rcode
+     */
+    public static int peekFlags(ByteBuffer message) {
+        return message.getShort(message.position() + 2) & 0xFFFF;
+    }
+
+    public static boolean peekQR(ByteBuffer message) {
+        return (peekFlags(message) & 0x8000) != 0;
+    }
+
+    public static int peekOpcode(ByteBuffer message) {
+        return (peekFlags(message) >> 11) & 0xF;
+    }
+
+    public static boolean peekTC(ByteBuffer message) {
+        return (peekFlags(message) & 0x0200) != 0;
+    }
+
+    public static int peekRcode(ByteBuffer message) {
+        return peekFlags(message) & 0xF;
+    }
+
+    public static int peekCount(ByteBuffer message, DNSSection section) {
+        return message.getShort(message.position() + section.getCountOffset()) & 0xFFFF;
+    }
+
+    /**
+     * Combines the hash of a question's name with its type and class codes. This is the hash returned by
+     * questionHash(ByteBuffer), so a hash computed from a decoded question can be compared with one peeked from a
+     * message.
+     *
+     * @param name      The question's name
+     * @param typeCode  The question's type code
+     * @param classCode The question's class code
+     * @return The hash of the question
+     */
+    public static int questionHash(DNSName name, int typeCode, int classCode) {
+        return questionHash(name.hashCode(), typeCode, classCode);
+    }
+
+    static int questionHash(int nameHash, int typeCode, int classCode) {
+        return 31 * (31 * nameHash + typeCode) + classCode;
+    }
+
+    /**
+     * Hashes the first question of the message, straight from the buffer. Names are hashed case-insensitively, as
+     * DNSName does, so the hash does not depend on the case used in the message.
+     *
+     * @param message The buffer holding the message
+     * @return The hash of the first question
+     * @throws IllegalArgumentException if the message has no question, or its first question is malformed
+     */
+    public static int questionHash(ByteBuffer message) {
+        int base = message.position();
+        int start = firstQuestion(message);
+        int end = DNSName.end(message, start);
+        if (end + 4 > message.limit())
+            throw new IllegalArgumentException("Question runs past the end of the message");
+        return questionHash(nameHash(message, base, start),
+                message.getShort(end) & 0xFFFF, message.getShort(end + 2) & 0xFFFF);
+    }
+
+    /**
+     * Compares the first question of two messages (typically a query and a candidate response), ignoring the case of
+     * names, without decoding either of them.
+     *
+     * @param a The buffer holding the first message
+     * @param b The buffer holding the second message
+     * @return true if both messages have a first question, with the same name, type and class; false otherwise,
+     * including when either message is malformed
+     */
+    public static boolean sameQuestion(ByteBuffer a, ByteBuffer b) {
+        try {
+            return compareQuestions(a, b);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private static boolean compareQuestions(ByteBuffer a, ByteBuffer b) {
+        if (!hasHeader(a) || !hasHeader(b) || peekCount(a, DNSSection.QUESTION) == 0
+                || peekCount(b, DNSSection.QUESTION) == 0)
+            return false;
+        int posA = a.position() + HEADER_LENGTH;
+        int posB = b.position() + HEADER_LENGTH;
+        int hopsA = 0;
+        int hopsB = 0;
+        int length = 1;
+        while (true) {
+            int lenA = a.get(posA) & 0xFF;
+            int lenB = b.get(posB) & 0xFF;
+            if ((lenA & 0xC0) == 0xC0) {
+                if (++hopsA > DNSName.MAX_POINTER_HOPS) return false;
+                posA = pointerTarget(a, a.position(), posA);
+                continue;
+            }
+            if ((lenB & 0xC0) == 0xC0) {
+                if (++hopsB > DNSName.MAX_POINTER_HOPS) return false;
+                posB = pointerTarget(b, b.position(), posB);
+                continue;
+            }
+            if (lenA != lenB || (lenA & 0xC0) != 0) return false;
+            if (lenA == 0) break;
+            length += lenA + 1;
+            if (length > DNSName.MAX_NAME_LENGTH) return false;
+            for (int i = 1; i <= lenA; i++)
+                if (DNSName.toLower(a.get(posA + i)) != DNSName.toLower(b.get(posB + i))) return false;
+            posA += lenA + 1;
+            posB += lenB + 1;
+        }
+        // The type and class follow the name where it started, not where its last pointer led
+        int endA = DNSName.end(a, a.position() + HEADER_LENGTH);
+        int endB = DNSName.end(b, b.position() + HEADER_LENGTH);
+        return endA + 4 <= a.limit() && endB + 4 <= b.limit() && a.getInt(endA) == b.getInt(endB);
+    }
+
+    private static int firstQuestion(ByteBuffer message) {
+        if (!hasHeader(message) || peekCount(message, DNSSection.QUESTION) == 0)
+            throw new IllegalArgumentException("Message has no question");
+        return message.position() + HEADER_LENGTH;
+    }
+
+    /**
+     * Hashes a name as DNSName.hashCode() does, but left to right: the hash of a name is the sum of the hashes of its
+     * labels, each hashed alone (see DNSName.hashLabel()) and multiplied by 31 to the power of the length of the labels
+     * before it, each counted with its length byte. Pointers are followed as in DNSName.read(), with the same limits.
+     */
+    private static int nameHash(ByteBuffer message, int base, int pos) {
+        int hash = 0;
+        int multiplier = 1;
+        int length = 1;
+        int hops = 0;
+        while (true) {
+            int len = message.get(pos) & 0xFF;
+            if (len == 0) return hash;
+            if ((len & 0xC0) == 0xC0) {
+                if (++hops > DNSName.MAX_POINTER_HOPS)
+                    throw new IllegalArgumentException("Too many compression pointers in question");
+                pos = pointerTarget(message, base, pos);
+                continue;
+            }
+            if ((len & 0xC0) != 0)
+                throw new IllegalArgumentException("Bad label type at offset " + (pos - base));
+            length += len + 1;
+            if (length > DNSName.MAX_NAME_LENGTH) throw new IllegalArgumentException("Name too long in question");
+            hash += multiplier * DNSName.hashLabel(0, message, pos + 1, len);
+            for (int i = 0; i <= len; i++)
+                multiplier *= 31;
+            pos += len + 1;
+        }
+    }
+
+    private static int pointerTarget(ByteBuffer message, int base, int pos) {
+        int target = base + (message.getShort(pos) & 0x3FFF);
+        if (target >= message.limit())
+            throw new IllegalArgumentException("Bad compression pointer at offset " + (pos - base));
+        return target;
+    }
+}
@@ -1,22 +1,42 @@
 package ca.ubc.cs.cs317.dnslookup;
 
 import java.io.Serializable;
-import java.util.Objects;
 
 /** DNS nodes can be used to specify an individual DNS query or the key to a specific result.
  * Each node represents a fully-qualified domain name (represented by hostName) and a record
  * type. Two nodes with the same host name and type are considered equal.
+ *
+ * Only the numeric type and class codes are kept, and the enums are looked up from them, so that a
+ * question for a type or class this application does not know (reported as OTHER) still remembers
+ * which one it was, and a question costs no more than its name and two ints.
+ *
+ * The name is kept as given, and compared with its case, so that the question can be shown and sent as it was asked.
+ * Caches and other tables that should not tell apart questions that differ only in case use a QuestionKey instead.
  */
 public class DNSQuestion implements Comparable<DNSQuestion>, Serializable {
 
     private final String hostName;
-    private final RecordType type;
-    private final RecordClass recordClass;
+    private final int typeCode;
+    private final int classCode;
 
     public DNSQuestion(String hostName, RecordType type, RecordClass recordClass) {
         this.hostName = hostName;
-        this.type = type;
-        this.recordClass = recordClass;
+        this.typeCode = type.getCode();
+        this.classCode = recordClass.getCode();
+    }
+
+    /**
+     * Creates a question from the numeric type and class codes found in a message. Codes that are not known to
+     * RecordType or RecordClass are preserved, and reported as OTHER by getRecordType() and getRecordClass().
+     *
+     * @param hostName  The fully-qualified domain name
+     * @param typeCode  The record type code, between 0 and 65535
+     * @param classCode The record class code, between 0 and 65535
+     */
+    public DNSQuestion(String hostName, int typeCode, int classCode) {
+        this.hostName = hostName;
+        this.typeCode = typeCode;
+        this.classCode = classCode;
     }
 
     public String getHostName() {
@@ -24,16 +44,24 @@ public class DNSQuestion implements Comparable<DNSQuestion>, Serializable {
     }
 
     public RecordType getRecordType() {
-        return type;
+        return RecordType.getByCode(typeCode);
     }
 
     public RecordClass getRecordClass() {
-        return recordClass;
+        return RecordClass.getByCode(classCode);
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public int getClassCode() {
+        return classCode;
     }
 
     @Override
     public String toString() {
-        return (hostName.isEmpty() ? "<root>" : hostName) + " (" + type + ")";
+        return (hostName.isEmpty() ? "<root>" : hostName) + " (" + (getRecordType() == RecordType.OTHER ? "TYPE" + typeCode : getRecordType()) + ")";
     }
 
     @Override
@@ -42,9 +70,9 @@ public class DNSQuestion implements Comparable<DNSQuestion>, Serializable {
             return hostName.compareToIgnoreCase(o.hostName);
         if (!hostName.equals(o.hostName))
             return hostName.compareTo(o.hostName);
-        if (!recordClass.equals(o.recordClass))
-            return recordClass.compareTo(o.recordClass);
-        return type.compareTo(o.type);
+        if (classCode != o.classCode)
+            return Integer.compare(classCode, o.classCode);
+        return Integer.compare(typeCode, o.typeCode);
     }
 
     @Override
@@ -52,11 +80,11 @@ public class DNSQuestion implements Comparable<DNSQuestion>, Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DNSQuestion that = (DNSQuestion) o;
-        return hostName.equals(that.hostName) && type == that.type && recordClass == that.recordClass;
+        return hostName.equals(that.hostName) && typeCode == that.typeCode && classCode == that.classCode;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(hostName, type, recordClass);
+        return 31 * (31 * hostName.hashCode() + typeCode) + classCode;
     }
 }
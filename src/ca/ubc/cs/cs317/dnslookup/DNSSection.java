@@ -0,0 +1,22 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/**
+ * The four sections of a DNS message, in the order in which they appear after the header. Each section knows where
+ * its entry count is stored in the header.
+ */
+public enum DNSSection {
+    QUESTION(4), ANSWER(6), AUTHORITY(8), ADDITIONAL(10);
+
+    private final int countOffset;
+
+    DNSSection(int countOffset) {
+        this.countOffset = countOffset;
+    }
+
+    /**
+     * @return The offset in the header of the 16-bit count of entries in this section.
+     */
+    public int getCountOffset() {
+        return countOffset;
+    }
+}
@@ -0,0 +1,62 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.Arrays;
+
+/**
+ * An option carried in the RDATA of an EDNS(0) OPT pseudo-record (RFC 6891): a 16-bit option code and opaque data, at
+ * most 65535 bytes of it. Options this application knows nothing about (cookies, client subnet, padding, ...) are
+ * kept as they are, so they can be added to another message unchanged.
+ */
+public final class EDNSOption {
+    public static final int COOKIE = 10;
+    public static final int PADDING = 12;
+
+    private final int code;
+    private final byte[] data;
+
+    /**
+     * @param code The option code
+     * @param data The option data, which must not be modified afterwards
+     */
+    public EDNSOption(int code, byte[] data) {
+        if (code < 0 || code > 0xFFFF)
+            throw new IllegalArgumentException("Bad EDNS option code " + code);
+        if (data.length > 0xFFFF)
+            throw new IllegalArgumentException("EDNS option " + code + " is too long");
+        this.code = code;
+        this.data = data;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return The number of bytes the option takes in the OPT record's RDATA, including its code and length.
+     */
+    public int length() {
+        return 4 + data.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EDNSOption that = (EDNSOption) o;
+        return code == that.code && Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * code + Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        return code + ":" + DNSMessage.byteArrayToHexString(data);
+    }
+}
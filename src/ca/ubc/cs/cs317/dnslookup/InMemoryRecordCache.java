@@ -0,0 +1,202 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A RecordCache kept on the heap. Record sets are spread over shards by question hash, and each shard has its own
+ * lock, so that threads working on different questions rarely contend. Each shard holds at most its share of the
+ * capacity and evicts the least recently used record set when it is full. Record sets are keyed by QuestionKey, so
+ * questions that differ only in the case of their names share theirs.
+ *
+ * Expired record sets are found with a per-shard TimerWheel rather than by scanning: a record set is scheduled to
+ * expire with its last record, and the wheel is advanced whenever the shard is used, which removes the record sets
+ * whose time has come in constant time each.
+ *
+ * The cache keeps its own copies of the records put into it, and get() and forEach() hand out copies, so that a
+ * caller's update() can't change what is cached.
+ */
+public class InMemoryRecordCache implements RecordCache {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 4096;
+
+    private final Shard[] shards;
+    private final int mask;
+
+    /**
+     * A record set, which is its own expiry timer.
+     */
+    private static final class Entry extends TimerWheel.Timeout {
+        final Shard shard;
+        final QuestionKey key;
+        final List<ResourceRecord> records = new ArrayList<>(2);
+        long expiration; // of the record that expires last
+
+        Entry(Shard shard, QuestionKey key) {
+            this.shard = shard;
+            this.key = key;
+        }
+
+        @Override
+        void expired() {
+            shard.entries.remove(key);
+        }
+    }
+
+    /**
+     * The record sets of a shard, in access order, so that the eldest is the least recently used one.
+     */
+    private static final class Shard {
+        final int capacity;
+        final TimerWheel wheel;
+        final LinkedHashMap<QuestionKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        Shard(int capacity, long now) {
+            this.capacity = capacity;
+            this.wheel = new TimerWheel(TICK_MILLIS, WHEEL_SLOTS, now);
+        }
+
+        void add(Entry entry) {
+            entries.put(entry.key, entry);
+            if (entries.size() <= capacity) return;
+            Iterator<Entry> eldest = entries.values().iterator();
+            wheel.cancel(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    public InMemoryRecordCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of record sets in the cache
+     */
+    public InMemoryRecordCache(int capacity) {
+        this(capacity, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+    }
+
+    /**
+     * @param capacity   The maximum number of record sets in the cache
+     * @param shardCount The number of shards, a power of 2
+     */
+    public InMemoryRecordCache(int capacity, int shardCount) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        if (Integer.bitCount(shardCount) != 1) throw new IllegalArgumentException("Shard count must be a power of 2");
+        shardCount = Math.min(shardCount, Integer.highestOneBit(capacity));
+        this.shards = new Shard[shardCount];
+        this.mask = shardCount - 1;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard((capacity + shardCount - 1) / shardCount, now);
+    }
+
+    private Shard shardFor(QuestionKey key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    @Override
+    public void put(ResourceRecord rr) {
+        long now = System.currentTimeMillis();
+        long expiration = rr.getExpirationTime();
+        if (expiration <= now) return;
+        QuestionKey key = QuestionKey.of(rr.getQuestion());
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            shard.wheel.advance(now);
+            Entry entry = shard.entries.get(key);
+            if (entry == null) {
+                entry = new Entry(shard, key);
+                shard.add(entry);
+            } else {
+                // Records whose time has come go now, or a set that is renewed as it is used would keep them forever
+                entry.records.removeIf(cached -> cached.getExpirationTime() <= now);
+            }
+            // The record set is keyed case-insensitively, so the owner name's case doesn't make a record another one
+            ResourceRecord cached = null;
+            for (ResourceRecord candidate : entry.records) {
+                if (candidate.sameData(rr)) {
+                    cached = candidate;
+                    break;
+                }
+            }
+            if (cached != null) cached.update(rr);
+            else entry.records.add(rr.copy());
+            if (expiration > entry.expiration) {
+                entry.expiration = expiration;
+                shard.wheel.schedule(entry, expiration);
+            }
+        }
+    }
+
+    @Override
+    public List<ResourceRecord> get(DNSQuestion question) {
+        long now = System.currentTimeMillis();
+        QuestionKey key = QuestionKey.of(question);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            shard.wheel.advance(now);
+            Entry entry = shard.entries.get(key);
+            if (entry == null) return List.of();
+            List<ResourceRecord> live = new ArrayList<>(entry.records.size());
+            for (ResourceRecord rr : entry.records) {
+                if (rr.getExpirationTime() > now) live.add(rr.copy());
+            }
+            return live;
+        }
+    }
+
+    @Override
+    public void remove(DNSQuestion question) {
+        QuestionKey key = QuestionKey.of(question);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            Entry entry = shard.entries.remove(key);
+            if (entry != null) shard.wheel.cancel(entry);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.entries.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Entry entry : shard.entries.values())
+                    shard.wheel.cancel(entry);
+                shard.entries.clear();
+            }
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<ResourceRecord> action) {
+        List<ResourceRecord> records = new ArrayList<>();
+        for (Shard shard : shards) {
+            long now = System.currentTimeMillis();
+            synchronized (shard) {
+                for (Entry entry : shard.entries.values()) {
+                    for (ResourceRecord rr : entry.records) {
+                        if (rr.getExpirationTime() > now) records.add(rr.copy());
+                    }
+                }
+            }
+            records.forEach(action);
+            records.clear();
+        }
+    }
+}
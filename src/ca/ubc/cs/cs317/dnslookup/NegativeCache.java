@@ -0,0 +1,178 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of negative answers (RFC 2308): name errors (NXDOMAIN), which say that a name does not exist, and NODATA
+ * answers, which say that a name exists but has no record of the type asked for. Repeated questions for names that
+ * don't exist, such as typos and blocked tracker domains, can then be answered without going upstream.
+ *
+ * A negative answer is only cached if its authority section holds the SOA record of the zone, and only for the smaller
+ * of that record's TTL and its MINIMUM field, capped at MAX_TTL (RFC 2308, section 5). A name error holds for every
+ * type of the name, so it answers any later question for the name in the same class, while NODATA only answers the
+ * same question. Answers are keyed by QuestionKey, so questions that differ only in case share them. When the cache is
+ * full, a few entries are sampled and the one closest to expiring is evicted, as in WireResponseCache (see SampledEviction).
+ */
+public class NegativeCache {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final int MAX_TTL = 3 * 60 * 60;
+    public static final int NAME_ERROR = 3;
+    // The type in the key of a name error, which holds for every type; type 0 is reserved, so it is never asked for
+    private static final int ANY_TYPE = 0;
+
+    private final int capacity;
+    private final ConcurrentHashMap<QuestionKey, NegativeAnswer> entries = new ConcurrentHashMap<>();
+
+    /**
+     * A cached negative answer: its rcode, and the SOA record to be sent back with it, whose remaining TTL is that of
+     * the negative answer.
+     */
+    public static final class NegativeAnswer {
+        private final int rcode;
+        private final ResourceRecord soa;
+
+        NegativeAnswer(int rcode, ResourceRecord soa) {
+            this.rcode = rcode;
+            this.soa = soa;
+        }
+
+        /**
+         * @return NAME_ERROR for a name error, or 0 (no error) for NODATA
+         */
+        public int getRcode() {
+            return rcode;
+        }
+
+        public boolean isNameError() {
+            return rcode == NAME_ERROR;
+        }
+
+        public ResourceRecord getSOA() {
+            return soa;
+        }
+
+        public long getExpirationTime() {
+            return soa.getExpirationTime();
+        }
+
+        @Override
+        public String toString() {
+            return (isNameError() ? "NXDOMAIN" : "NODATA") + " " + soa;
+        }
+    }
+
+    public NegativeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of negative answers in the cache
+     */
+    public NegativeCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Caches a response if it is a negative answer.
+     *
+     * @param response The response, as received from upstream
+     * @return true if the response was cached, false if it is not a negative answer that can be cached (it is
+     * truncated, has answers, an rcode other than NXDOMAIN or no error, or no SOA record)
+     */
+    public boolean put(DNSMessage response) {
+        if (!response.getQR() || response.getTC() || response.getQDCount() != 1) return false;
+        int rcode = response.getRcode();
+        // A name error with answers is for the end of a CNAME chain, not for the name asked for (RFC 2308, section 2.1)
+        if ((rcode != NAME_ERROR && rcode != 0) || response.getANCount() != 0) return false;
+
+        SectionView authority = response.authority();
+        RecordSlice slice = null;
+        for (int i = 0; i < authority.size() && slice == null; i++) {
+            if (authority.get(i).getTypeCode() == RecordType.SOA.getCode()) slice = authority.get(i);
+        }
+        if (slice == null) return false;
+        ResourceRecord soa;
+        long ttl;
+        QuestionKey key;
+        try {
+            soa = slice.toResourceRecord();
+            ttl = Math.min(Math.min(Math.max(slice.getTTL(), 0), SOARecord.from(slice).getMinimum()), MAX_TTL);
+            key = QuestionKey.read(response.asWholeBuffer());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (ttl == 0) return false;
+
+        if (rcode == NAME_ERROR) key = new QuestionKey(key.getName(), ANY_TYPE, key.getClassCode());
+        long now = System.currentTimeMillis();
+        soa.setExpirationTime(now + ttl * 1000);
+        if (entries.size() >= capacity && !entries.containsKey(key))
+            SampledEviction.evict(entries, NegativeAnswer::getExpirationTime, now);
+        entries.put(key, new NegativeAnswer(rcode, soa));
+        return true;
+    }
+
+    /**
+     * Looks for a negative answer to a question: a name error for its name, or NODATA for the question itself.
+     *
+     * @param question The question
+     * @return The negative answer, or null if none is cached
+     */
+    public NegativeAnswer get(DNSQuestion question) {
+        QuestionKey key = QuestionKey.of(question);
+        NegativeAnswer answer = get(new QuestionKey(key.getName(), ANY_TYPE, key.getClassCode()));
+        return answer != null ? answer : get(key);
+    }
+
+    private NegativeAnswer get(QuestionKey key) {
+        NegativeAnswer answer = entries.get(key);
+        if (answer == null) return null;
+        if (answer.getExpirationTime() <= System.currentTimeMillis()) {
+            entries.remove(key, answer);
+            return null;
+        }
+        return answer;
+    }
+
+    /**
+     * Builds the response to a query from a cached negative answer: the query's question, the rcode of the answer and
+     * its SOA record in the authority section, with what is left of its TTL. QR is set and RD is copied from the query;
+     * other header flags are left for the caller to set.
+     *
+     * @param query The query
+     * @return The response, or null if no negative answer is cached for the query's first question
+     */
+    public DNSMessage answer(DNSMessage query) {
+        if (query.getQDCount() == 0) return null;
+        DNSQuestion question = query.getQuestion(0);
+        NegativeAnswer answer = get(question);
+        if (answer == null) return null;
+        DNSMessage response = new DNSMessageBuilder(query.getID()).addQuestion(question)
+                .addAuthority(answer.getSOA()).build();
+        response.setQR(true);
+        response.setRD(query.getRD());
+        response.setRcode(answer.getRcode());
+        return response;
+    }
+
+    /**
+     * Forgets the negative answers to a question, including a name error for its name, e.g. because the name has
+     * just been found to exist.
+     *
+     * @param question The question
+     */
+    public void remove(DNSQuestion question) {
+        QuestionKey key = QuestionKey.of(question);
+        entries.remove(key);
+        entries.remove(new QuestionKey(key.getName(), ANY_TYPE, key.getClassCode()));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The EDNS(0) OPT pseudo-record (RFC 6891), which a message carries in its additional section to advertise how large a
+ * UDP response its sender can receive, and to extend the header. Its fields reuse those of a resource record: the
+ * owner name is the root, the class holds the UDP payload size, and the TTL holds the upper 8 bits of the extended
+ * rcode, the EDNS version and the flags, of which only DO (DNSSEC OK) is defined. The RDATA is a list of options.
+ */
+public final class OPTRecord {
+    // RFC 6891 says not to advertise less than 512 bytes; 1232 is the size recommended to avoid IP fragmentation
+    public static final int MIN_PAYLOAD_SIZE = DNSMessage.MAX_DNS_MESSAGE_LENGTH;
+    public static final int DEFAULT_PAYLOAD_SIZE = 1232;
+    private static final int DO_FLAG = 0x8000;
+
+    private final int payloadSize;
+    private final int extendedRcode;
+    private final int version;
+    private final boolean dnssecOK;
+    private final List<EDNSOption> options;
+
+    /**
+     * Creates a version 0 OPT record with no options and the DO flag clear.
+     *
+     * @param payloadSize The largest UDP response the sender can receive, in bytes
+     */
+    public OPTRecord(int payloadSize) {
+        this(payloadSize, 0, 0, false, Collections.emptyList());
+    }
+
+    /**
+     * @param payloadSize   The largest UDP response the sender can receive, in bytes. Values below 512 are taken as 512.
+     * @param extendedRcode The upper 8 bits of the response's 12 bit rcode
+     * @param version       The EDNS version, 0 for RFC 6891
+     * @param dnssecOK      Whether the sender can handle DNSSEC records
+     * @param options       The options of the record
+     */
+    public OPTRecord(int payloadSize, int extendedRcode, int version, boolean dnssecOK, List<EDNSOption> options) {
+        if (payloadSize > 0xFFFF)
+            throw new IllegalArgumentException("Bad UDP payload size " + payloadSize);
+        if (extendedRcode < 0 || extendedRcode > 0xFF)
+            throw new IllegalArgumentException("Bad extended rcode " + extendedRcode);
+        if (version < 0 || version > 0xFF)
+            throw new IllegalArgumentException("Bad EDNS version " + version);
+        this.payloadSize = Math.max(payloadSize, MIN_PAYLOAD_SIZE);
+        this.extendedRcode = extendedRcode;
+        this.version = version;
+        this.dnssecOK = dnssecOK;
+        this.options = List.copyOf(options);
+        if (length() > DNSMessage.MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("Too many EDNS options");
+    }
+
+    /**
+     * Decodes the OPT record in a received message.
+     *
+     * @param slice The record, as found in the message's additional section
+     * @return The decoded OPT record
+     * @throws IllegalArgumentException if the record is not a well-formed OPT record
+     */
+    public static OPTRecord from(RecordSlice slice) {
+        if (slice.getTypeCode() != RecordType.OPT.getCode())
+            throw new IllegalArgumentException("Record at offset " + slice.getOffset() + " is not an OPT record");
+        if (!slice.getName().isRoot())
+            throw new IllegalArgumentException("OPT record at offset " + slice.getOffset() + " has a non-root name");
+        int ttl = slice.getTTL();
+        byte[] rdata = slice.getRData();
+        List<EDNSOption> options = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.wrap(rdata);
+        while (data.hasRemaining()) {
+            if (data.remaining() < 4)
+                throw new IllegalArgumentException("Truncated EDNS option in OPT record at offset " + slice.getOffset());
+            int code = data.getShort() & 0xFFFF;
+            int length = data.getShort() & 0xFFFF;
+            if (length > data.remaining())
+                throw new IllegalArgumentException("EDNS option " + code + " runs past the end of the OPT record");
+            byte[] value = new byte[length];
+            data.get(value);
+            options.add(new EDNSOption(code, value));
+        }
+        return new OPTRecord(slice.getClassCode(), ttl >>> 24, (ttl >> 16) & 0xFF, (ttl & DO_FLAG) != 0, options);
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * @return The upper 8 bits of the 12 bit rcode; the lower 4 are in the message header.
+     */
+    public int getExtendedRcode() {
+        return extendedRcode;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean getDnssecOK() {
+        return dnssecOK;
+    }
+
+    public List<EDNSOption> getOptions() {
+        return options;
+    }
+
+    /**
+     * @return The number of bytes the record takes in a message.
+     */
+    public int length() {
+        int length = 11; // root name, type, class, TTL and RDLENGTH
+        for (EDNSOption option : options)
+            length += option.length();
+        return length;
+    }
+
+    /**
+     * Writes the record at the buffer's position. The owner name is the root, so it never uses compression.
+     *
+     * @param buffer The buffer holding the message being built
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) 0);
+        buffer.putShort((short) RecordType.OPT.getCode());
+        buffer.putShort((short) payloadSize);
+        buffer.putInt(extendedRcode << 24 | version << 16 | (dnssecOK ? DO_FLAG : 0));
+        buffer.putShort((short) (length() - 11));
+        for (EDNSOption option : options) {
+            buffer.putShort((short) option.getCode());
+            buffer.putShort((short) option.getData().length);
+            buffer.put(option.getData());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OPTRecord that = (OPTRecord) o;
+        return payloadSize == that.payloadSize && extendedRcode == that.extendedRcode && version == that.version
+                && dnssecOK == that.dnssecOK && options.equals(that.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(payloadSize, extendedRcode, version, dnssecOK, options);
+    }
+
+    @Override
+    public String toString() {
+        return "EDNS version " + version + ", udp payload " + payloadSize + (dnssecOK ? ", DO" : "")
+                + (options.isEmpty() ? "" : ", options " + options);
+    }
+}
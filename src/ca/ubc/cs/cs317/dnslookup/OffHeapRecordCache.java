@@ -0,0 +1,630 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * A RecordCache that keeps its records outside the Java heap, for caches so large that the ResourceRecord objects of
+ * an InMemoryRecordCache would make garbage collection too slow. Record sets are stored encoded in direct buffers, and
+ * ResourceRecord objects are only built when a record set is read. What is left on the heap is a few arrays of
+ * primitives per shard, which the garbage collector does not need to look into.
+ *
+ * As in InMemoryRecordCache, record sets are spread over shards by question hash, each with its own lock. Each shard
+ * finds its record sets with an open-addressing table (linear probing, with deletion by backward shift) of the
+ * QuestionKey hash, the location of the record set and its expiration time. Record sets are stored in slots of
+ * power-of-two sizes, carved out of fixed-size slabs: each slab holds slots of a single size, and goes back to the
+ * shard's pool of empty slabs when its last slot is freed, so that it can be used for slots of another size. A record
+ * set that grows past its slot is moved to a larger one.
+ *
+ * When a shard holds as many record sets as its share of the capacity, a few record sets are sampled and the one that
+ * expires first is evicted. When it has used all of its share of the memory and a record set needs a slot of a size no
+ * slab has free, a record set of that size is evicted the same way, since only that frees a slot it can use. If no
+ * slab holds slots of that size at all, the slab with the fewest slots in use is emptied for it: its record sets are
+ * moved to free slots of their size in other slabs, and only those that find none are evicted.
+ *
+ * Names are kept in lower case, so the records returned by get() have their owner names in lower case. A record set
+ * that would not fit in the largest slot (MAX_SLOT_SIZE bytes) is not cached in full: the records that do not fit are
+ * left out.
+ */
+public class OffHeapRecordCache implements RecordCache {
+    public static final int DEFAULT_CAPACITY = 1_000_000;
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+    static final int SLAB_SIZE = 64 << 10;
+    static final int MIN_SLOT_SIZE = 32;
+    static final int MAX_SLOT_SIZE = 8 << 10;
+    static final int SLOT_CLASSES = Integer.numberOfTrailingZeros(MAX_SLOT_SIZE / MIN_SLOT_SIZE) + 1;
+    private static final int EVICTION_SAMPLES = 5;
+    private static final int EVICTION_ATTEMPTS = 16;
+    private static final long EMPTY = -1;
+
+    // Layout of a record set, from the start of its slot
+    private static final int USED = 0; // 2 bytes: the number of bytes used in the slot
+    private static final int COUNT = 2; // 2 bytes: the number of records
+    private static final int TYPE = 4;
+    private static final int CLASS = 6;
+    private static final int NAME = 8; // 1 byte for the length of the name's wire form, followed by the name
+    // Each record is: expiration time (8 bytes) | data tag (1 byte) | data length (2 bytes) | data
+    private static final int RECORD_HEADER = 11;
+
+    // Data tags
+    private static final byte TEXT = 0;
+    private static final byte IPV4 = 1;
+    private static final byte IPV6 = 2;
+    private static final byte RAW = 3;
+
+    private final Shard[] shards;
+    private final int mask;
+
+    public OffHeapRecordCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param capacity The maximum number of record sets in the cache
+     * @param maxBytes The maximum amount of memory used for records, outside the heap
+     */
+    public OffHeapRecordCache(int capacity, long maxBytes) {
+        this(capacity, maxBytes, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+    }
+
+    /**
+     * @param capacity   The maximum number of record sets in the cache
+     * @param maxBytes   The maximum amount of memory used for records, outside the heap. Each shard gets at least a
+     *                   slab per slot size, whatever this is.
+     * @param shardCount The number of shards, a power of 2
+     */
+    public OffHeapRecordCache(int capacity, long maxBytes, int shardCount) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        if (Integer.bitCount(shardCount) != 1) throw new IllegalArgumentException("Shard count must be a power of 2");
+        shardCount = Math.min(shardCount, Integer.highestOneBit(capacity));
+        this.shards = new Shard[shardCount];
+        this.mask = shardCount - 1;
+        int maxSlabs = (int) Math.max(SLOT_CLASSES, Math.min(Integer.MAX_VALUE, maxBytes / shardCount / SLAB_SIZE));
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard((capacity + shardCount - 1) / shardCount, maxSlabs);
+    }
+
+    private Shard shardFor(QuestionKey key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    @Override
+    public void put(ResourceRecord rr) {
+        long now = System.currentTimeMillis();
+        if (rr.getExpirationTime() <= now) return;
+        QuestionKey key = QuestionKey.of(rr.getQuestion());
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            shard.put(key, rr, now);
+        }
+    }
+
+    @Override
+    public List<ResourceRecord> get(DNSQuestion question) {
+        long now = System.currentTimeMillis();
+        QuestionKey key = QuestionKey.of(question);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            int i = shard.find(key);
+            if (i < 0) return List.of();
+            if (shard.expirations[i] <= now) {
+                shard.removeAt(i);
+                return List.of();
+            }
+            List<ResourceRecord> records = new ArrayList<>();
+            shard.materialize(shard.refs[i], now, records);
+            return records;
+        }
+    }
+
+    @Override
+    public void remove(DNSQuestion question) {
+        QuestionKey key = QuestionKey.of(question);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            int i = shard.find(key);
+            if (i >= 0) shard.removeAt(i);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.clear();
+            }
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<ResourceRecord> action) {
+        List<ResourceRecord> records = new ArrayList<>();
+        for (Shard shard : shards) {
+            long now = System.currentTimeMillis();
+            synchronized (shard) {
+                for (int i = 0; i < shard.refs.length; i++) {
+                    if (shard.refs[i] != EMPTY && shard.expirations[i] > now)
+                        shard.materialize(shard.refs[i], now, records);
+                }
+            }
+            records.forEach(action);
+            records.clear();
+        }
+    }
+
+    /**
+     * @return The amount of memory taken by slabs outside the heap, whether they are in use or not.
+     */
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                bytes += (long) shard.slabs.size() * SLAB_SIZE;
+            }
+        }
+        return bytes;
+    }
+
+    private static int slotClass(int size) {
+        return Math.max(0, 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE));
+    }
+
+    /**
+     * A slab of memory divided into slots of one size. Free slots are chained through their first 4 bytes.
+     */
+    private static final class Slab {
+        final ByteBuffer memory = ByteBuffer.allocateDirect(SLAB_SIZE);
+        final int index;
+        int slotClass = -1;
+        int slotSize;
+        int freeHead = -1; // the first free slot that has been used before, or -1
+        int bump; // the first slot never used
+        int used;
+        boolean draining; // being emptied, and kept out of the list of slabs with free slots
+        Slab prev, next; // in the list of slabs of the same slot size that have free slots
+
+        Slab(int index) {
+            this.index = index;
+        }
+
+        boolean isFull() {
+            return freeHead < 0 && bump + slotSize > SLAB_SIZE;
+        }
+    }
+
+    private static final class Shard {
+        final int capacity;
+        final int maxSlabs;
+        final List<Slab> slabs = new ArrayList<>();
+        final ArrayDeque<Slab> emptySlabs = new ArrayDeque<>();
+        final Slab[] partial = new Slab[SLOT_CLASSES];
+        final ByteBuffer scratch = ByteBuffer.allocate(MAX_SLOT_SIZE);
+
+        // The index: for each entry, the question hash, the location of the record set (the slab's index in the
+        // upper 32 bits, the slot's offset in the lower ones) and the time the record set expires
+        final int[] hashes;
+        final long[] refs;
+        final long[] expirations;
+        final int shift;
+        int size;
+
+        Shard(int capacity, int maxSlabs) {
+            this.capacity = capacity;
+            this.maxSlabs = maxSlabs;
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            this.hashes = new int[tableSize];
+            this.refs = new long[tableSize];
+            this.expirations = new long[tableSize];
+            this.shift = 32 - Integer.numberOfTrailingZeros(tableSize);
+            Arrays.fill(refs, EMPTY);
+        }
+
+        int home(int hash) {
+            return (hash * 0x9E3779B9) >>> shift;
+        }
+
+        /**
+         * @return The index of the entry for the key, or -1
+         */
+        int find(QuestionKey key) {
+            int h = key.hashCode();
+            int tableMask = refs.length - 1;
+            for (int i = home(h); refs[i] != EMPTY; i = (i + 1) & tableMask) {
+                if (hashes[i] == h && matches(refs[i], key)) return i;
+            }
+            return -1;
+        }
+
+        boolean matches(long ref, QuestionKey key) {
+            ByteBuffer memory = slab(ref).memory;
+            int slot = (int) ref;
+            byte[] name = key.getName().wire();
+            if ((memory.getShort(slot + TYPE) & 0xFFFF) != key.getTypeCode()
+                    || (memory.getShort(slot + CLASS) & 0xFFFF) != key.getClassCode()
+                    || (memory.get(slot + NAME) & 0xFF) != name.length)
+                return false;
+            for (int i = 0; i < name.length; i++)
+                if (memory.get(slot + NAME + 1 + i) != name[i]) return false;
+            return true;
+        }
+
+        Slab slab(long ref) {
+            return slabs.get((int) (ref >>> 32));
+        }
+
+        void put(QuestionKey key, ResourceRecord rr, long now) {
+            byte[] name = key.getName().wire();
+            int headerLength = NAME + 1 + name.length;
+            long expiration = rr.getExpirationTime();
+
+            // The new record goes at the end of the scratch buffer, after the record set if there is one
+            scratch.clear();
+            int i = find(key);
+            if (i >= 0 && expirations[i] <= now) {
+                removeAt(i);
+                i = -1;
+            }
+            int count = 0;
+            boolean pruned = false; // whether the record set in the scratch buffer differs from the one in its slot
+            if (i >= 0) {
+                long ref = refs[i];
+                ByteBuffer memory = slab(ref).memory;
+                int slot = (int) ref;
+                int records = memory.getShort(slot + COUNT) & 0xFFFF;
+                scratch.put(0, memory, slot, headerLength).position(headerLength);
+                // Expired records are left behind, so that records that come and go don't fill up the record set
+                for (int pos = slot + headerLength, n = 0; n < records; n++) {
+                    int length = RECORD_HEADER + (memory.getShort(pos + 9) & 0xFFFF);
+                    if (memory.getLong(pos) > now) {
+                        scratch.put(scratch.position(), memory, pos, length).position(scratch.position() + length);
+                        count++;
+                    } else {
+                        pruned = true;
+                    }
+                    pos += length;
+                }
+            } else {
+                scratch.putShort((short) 0).putShort((short) 0)
+                        .putShort((short) key.getTypeCode()).putShort((short) key.getClassCode())
+                        .put((byte) name.length).put(name);
+            }
+            int record = scratch.position();
+            if (!encode(rr, expiration)) return;
+
+            // A record that is already cached only has its expiration time updated
+            int recordLength = scratch.position() - record;
+            for (int pos = headerLength, n = 0; n < count; n++) {
+                int length = RECORD_HEADER + (scratch.getShort(pos + 9) & 0xFFFF);
+                if (length == recordLength && sameData(pos, record, length)) {
+                    long ref = refs[i];
+                    if (expiration > scratch.getLong(pos)) {
+                        scratch.putLong(pos, expiration);
+                        expirations[i] = Math.max(expirations[i], expiration);
+                        if (!pruned) slab(ref).memory.putLong((int) ref + pos, expiration);
+                    }
+                    if (pruned) {
+                        scratch.putShort(USED, (short) record).putShort(COUNT, (short) count);
+                        slab(ref).memory.put((int) ref, scratch, 0, record);
+                    }
+                    return;
+                }
+                pos += length;
+            }
+
+            int used = scratch.position();
+            scratch.putShort(USED, (short) used).putShort(COUNT, (short) (count + 1));
+            if (i >= 0) {
+                long ref = refs[i];
+                Slab slab = slab(ref);
+                if (used <= slab.slotSize) {
+                    // The record set still fits in its slot
+                    if (pruned) {
+                        slab.memory.put((int) ref, scratch, 0, used);
+                    } else {
+                        slab.memory.put((int) ref + record, scratch, record, recordLength);
+                        slab.memory.putShort((int) ref + USED, (short) used)
+                                .putShort((int) ref + COUNT, (short) (count + 1));
+                    }
+                    expirations[i] = Math.max(expirations[i], expiration);
+                    return;
+                }
+                expiration = Math.max(expirations[i], expiration);
+                removeAt(i);
+            }
+            insert(key.hashCode(), expiration, now);
+        }
+
+        /**
+         * Appends a record to the scratch buffer, without its owner name, type and class, which are those of the
+         * record set.
+         *
+         * @return false if the record set would not fit in the largest slot
+         */
+        boolean encode(ResourceRecord rr, long expiration) {
+            byte[] data = null;
+            int addressLength = rr.addressLength();
+            byte tag;
+            int length;
+            if (addressLength != 0) {
+                tag = addressLength == 4 ? IPV4 : IPV6;
+                length = addressLength;
+            } else if (rr.getRawData() != null) {
+                tag = RAW;
+                data = rr.getRawData();
+                length = data.length;
+            } else {
+                tag = TEXT;
+                data = rr.getTextResult().getBytes(StandardCharsets.UTF_8);
+                length = data.length;
+            }
+            if (scratch.remaining() < RECORD_HEADER + length) return false;
+            scratch.putLong(expiration).put(tag).putShort((short) length);
+            if (data != null) scratch.put(data);
+            else rr.writeAddress(scratch);
+            return true;
+        }
+
+        /**
+         * Compares the tag and data of two records in the scratch buffer.
+         */
+        boolean sameData(int a, int b, int length) {
+            for (int i = 8; i < length; i++)
+                if (scratch.get(a + i) != scratch.get(b + i)) return false;
+            return true;
+        }
+
+        /**
+         * Stores the record set in the scratch buffer as a new entry, evicting other record sets to make room if
+         * needed. The record set is dropped if no room can be made.
+         */
+        void insert(int hash, long expiration, long now) {
+            int used = scratch.position();
+            int slotClass = slotClass(used);
+            for (int attempt = 0; size >= capacity && attempt < EVICTION_ATTEMPTS; attempt++)
+                evict(now, -1);
+            long ref = allocate(slotClass);
+            if (ref == EMPTY) {
+                // Evicting a record set only helps if it frees a slot of the right size
+                if (hasSlabs(slotClass)) evict(now, slotClass);
+                else reclaim();
+                ref = allocate(slotClass);
+            }
+            if (ref == EMPTY || size >= capacity) {
+                if (ref != EMPTY) free(ref);
+                return;
+            }
+            slab(ref).memory.put((int) ref, scratch, 0, used);
+
+            int tableMask = refs.length - 1;
+            int i = home(hash);
+            while (refs[i] != EMPTY)
+                i = (i + 1) & tableMask;
+            hashes[i] = hash;
+            refs[i] = ref;
+            expirations[i] = expiration;
+            size++;
+        }
+
+        /**
+         * Removes an expired record set if one is found among a few sampled, or the one that expires first otherwise.
+         *
+         * @param slotClass The class of the slots record sets are sampled from, or -1 for any
+         */
+        void evict(long now, int slotClass) {
+            int tableMask = refs.length - 1;
+            int victim = -1;
+            int i = ThreadLocalRandom.current().nextInt(refs.length);
+            for (int sampled = 0, probed = 0; sampled < EVICTION_SAMPLES && probed < refs.length;
+                 i = (i + 1) & tableMask, probed++) {
+                if (refs[i] == EMPTY || (slotClass >= 0 && slab(refs[i]).slotClass != slotClass)) continue;
+                if (victim < 0 || expirations[i] < expirations[victim]) victim = i;
+                if (expirations[victim] <= now) break;
+                sampled++;
+            }
+            if (victim >= 0) removeAt(victim);
+        }
+
+        boolean hasSlabs(int slotClass) {
+            for (Slab slab : slabs)
+                if (slab.slotClass == slotClass) return true;
+            return false;
+        }
+
+        /**
+         * Empties a slab so that it can hold slots of another size: the one with the fewest slots in use, among those
+         * whose slot size has other slabs if there are any, so that no size is left without memory. Its record sets
+         * are moved to free slots of their size in other slabs while there are any, and evicted after that.
+         */
+        void reclaim() {
+            int[] slabsPerClass = new int[SLOT_CLASSES];
+            for (Slab slab : slabs)
+                if (slab.slotClass >= 0) slabsPerClass[slab.slotClass]++;
+            Slab victim = null;
+            for (Slab slab : slabs) {
+                if (slab.used == 0) continue;
+                boolean shared = slabsPerClass[slab.slotClass] > 1;
+                boolean victimShared = victim != null && slabsPerClass[victim.slotClass] > 1;
+                if (victim == null || (shared && !victimShared) || (shared == victimShared && slab.used < victim.used))
+                    victim = slab;
+            }
+            if (victim == null) return;
+
+            if (!victim.isFull()) unlink(victim);
+            victim.draining = true;
+            // An entry moved back over a removed one has been looked at already, or is not in the victim slab
+            for (int i = 0; i < refs.length && victim.used > 0; ) {
+                long ref = refs[i];
+                if (ref == EMPTY || slab(ref) != victim) {
+                    i++;
+                    continue;
+                }
+                long moved = allocate(victim.slotClass);
+                if (moved == EMPTY) {
+                    removeAt(i);
+                    continue;
+                }
+                slab(moved).memory.put((int) moved, victim.memory, (int) ref, victim.slotSize);
+                refs[i] = moved;
+                free(ref);
+                i++;
+            }
+        }
+
+        void removeAt(int i) {
+            free(refs[i]);
+            int tableMask = refs.length - 1;
+            // Move back the entries that follow, until one is found that is already where it belongs
+            for (int j = (i + 1) & tableMask; refs[j] != EMPTY; j = (j + 1) & tableMask) {
+                int home = home(hashes[j]);
+                boolean between = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (between) continue;
+                hashes[i] = hashes[j];
+                refs[i] = refs[j];
+                expirations[i] = expirations[j];
+                i = j;
+            }
+            refs[i] = EMPTY;
+            size--;
+        }
+
+        /**
+         * @return The location of a free slot of the given class, or EMPTY if the shard has no memory left
+         */
+        long allocate(int slotClass) {
+            Slab slab = partial[slotClass];
+            if (slab == null) {
+                slab = emptySlabs.poll();
+                if (slab == null) {
+                    if (slabs.size() >= maxSlabs) return EMPTY;
+                    slab = new Slab(slabs.size());
+                    slabs.add(slab);
+                }
+                slab.slotClass = slotClass;
+                slab.slotSize = MIN_SLOT_SIZE << slotClass;
+                link(slab);
+            }
+            int slot;
+            if (slab.freeHead >= 0) {
+                slot = slab.freeHead;
+                slab.freeHead = slab.memory.getInt(slot);
+            } else {
+                slot = slab.bump;
+                slab.bump += slab.slotSize;
+            }
+            slab.used++;
+            if (slab.isFull()) unlink(slab);
+            return ((long) slab.index << 32) | slot;
+        }
+
+        void free(long ref) {
+            Slab slab = slab(ref);
+            boolean wasFull = slab.isFull();
+            slab.memory.putInt((int) ref, slab.freeHead);
+            slab.freeHead = (int) ref;
+            slab.used--;
+            if (slab.used == 0) {
+                // The slab may be used for another slot size
+                if (!wasFull && !slab.draining) unlink(slab);
+                slab.draining = false;
+                slab.freeHead = -1;
+                slab.bump = 0;
+                slab.slotClass = -1;
+                emptySlabs.add(slab);
+            } else if (wasFull && !slab.draining) {
+                link(slab);
+            }
+        }
+
+        void link(Slab slab) {
+            Slab head = partial[slab.slotClass];
+            slab.prev = null;
+            slab.next = head;
+            if (head != null) head.prev = slab;
+            partial[slab.slotClass] = slab;
+        }
+
+        void unlink(Slab slab) {
+            if (slab.prev != null) slab.prev.next = slab.next;
+            else partial[slab.slotClass] = slab.next;
+            if (slab.next != null) slab.next.prev = slab.prev;
+            slab.prev = slab.next = null;
+        }
+
+        void clear() {
+            Arrays.fill(refs, EMPTY);
+            size = 0;
+            Arrays.fill(partial, null);
+            emptySlabs.clear();
+            for (Slab slab : slabs) {
+                slab.freeHead = -1;
+                slab.bump = 0;
+                slab.used = 0;
+                slab.slotClass = -1;
+                slab.draining = false;
+                slab.prev = slab.next = null;
+                emptySlabs.add(slab);
+            }
+        }
+
+        /**
+         * Builds the records of a record set that have not expired, and adds them to the list.
+         */
+        void materialize(long ref, long now, List<ResourceRecord> records) {
+            ByteBuffer memory = slab(ref).memory;
+            int slot = (int) ref;
+            int count = memory.getShort(slot + COUNT) & 0xFFFF;
+            DNSQuestion question = null;
+            int pos = slot + NAME + 1 + (memory.get(slot + NAME) & 0xFF);
+            for (int n = 0; n < count; n++) {
+                long expiration = memory.getLong(pos);
+                byte tag = memory.get(pos + 8);
+                int length = memory.getShort(pos + 9) & 0xFFFF;
+                int data = pos + RECORD_HEADER;
+                pos = data + length;
+                if (expiration <= now) continue;
+                if (question == null) {
+                    question = new DNSQuestion(DNSName.read(memory, slot + NAME + 1).toString(),
+                            memory.getShort(slot + TYPE) & 0xFFFF, memory.getShort(slot + CLASS) & 0xFFFF);
+                }
+                ResourceRecord rr;
+                switch (tag) {
+                    case IPV4:
+                        rr = new ResourceRecord(question, 0, memory.getInt(data));
+                        break;
+                    case IPV6:
+                        rr = new ResourceRecord(question, 0, memory.getLong(data), memory.getLong(data + 8));
+                        break;
+                    case RAW:
+                        byte[] raw = new byte[length];
+                        memory.get(data, raw);
+                        rr = new ResourceRecord(question, 0, raw);
+                        break;
+                    default:
+                        byte[] text = new byte[length];
+                        memory.get(data, text);
+                        rr = new ResourceRecord(question, 0, new String(text, StandardCharsets.UTF_8));
+                }
+                rr.setExpirationTime(expiration);
+                records.add(rr);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A RecordCache that refreshes popular record sets before they expire, so that the clients asking for them don't all
+ * wait on upstream when their TTL runs out. Any RecordCache can be wrapped, and does the actual caching.
+ *
+ * Hits are counted for each record set over its current lifetime. Once a record set has had hitThreshold hits and is
+ * within refreshFraction of its TTL of expiring, a hit sends its question upstream in the background, and the records
+ * of the response are cached over the old ones, which extends their expiration in place: there is no moment at which
+ * the record set is missing. Records that are no longer in the answer age out with what is left of their TTL.
+ *
+ * At most maxPending refreshes are in flight at once, so refreshes can never crowd out live queries upstream; a refresh
+ * that finds no room is dropped, and tried again on a later hit. Each record set has at most one refresh in flight,
+ * and a failed refresh is not retried until the next hit. Hit counts are kept for at most capacity record sets; when
+ * there are more, a few are sampled and the one closest to expiring is forgotten, as in NegativeCache (see SampledEviction).
+ *
+ * The records of a refresh are cached on the given executor, not on the thread that completes the response, which for
+ * AsyncDNSClient is its event loop.
+ */
+public class PrefetchingRecordCache implements RecordCache {
+    public static final int DEFAULT_HIT_THRESHOLD = 3;
+    public static final double DEFAULT_REFRESH_FRACTION = 0.1;
+    public static final int DEFAULT_MAX_PENDING = 64;
+
+    private final RecordCache cache;
+    private final Function<DNSQuestion, CompletableFuture<DNSMessage>> upstream;
+    private final int hitThreshold;
+    private final double refreshFraction;
+    private final int maxPending;
+    private final int capacity;
+    private final Executor executor;
+    private final Semaphore pending;
+    private final ConcurrentHashMap<QuestionKey, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * What is known of a record set's lifetime: its TTL when it was last cached, and how often it was asked for since.
+     */
+    private static final class Stats {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long ttlMillis;
+        volatile long expiration;
+    }
+
+    /**
+     * Wraps a cache with the default hit threshold, refresh fraction and number of refreshes in flight, caching
+     * refreshed records on the common ForkJoinPool.
+     *
+     * @param cache    The cache holding the records
+     * @param upstream Resolves a question, e.g. AsyncDNSClient::query
+     */
+    public PrefetchingRecordCache(RecordCache cache, Function<DNSQuestion, CompletableFuture<DNSMessage>> upstream) {
+        this(cache, upstream, DEFAULT_HIT_THRESHOLD, DEFAULT_REFRESH_FRACTION, DEFAULT_MAX_PENDING,
+                InMemoryRecordCache.DEFAULT_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param cache           The cache holding the records
+     * @param upstream        Resolves a question, e.g. AsyncDNSClient::query
+     * @param hitThreshold    The number of hits over its lifetime that makes a record set worth refreshing
+     * @param refreshFraction The fraction of its TTL, between 0 and 1, left to a record set when it is refreshed
+     * @param maxPending      The maximum number of refreshes in flight
+     * @param capacity        The maximum number of record sets whose hits are counted
+     * @param executor        Caches the records of refresh responses
+     */
+    public PrefetchingRecordCache(RecordCache cache, Function<DNSQuestion, CompletableFuture<DNSMessage>> upstream,
+                                  int hitThreshold, double refreshFraction, int maxPending, int capacity,
+                                  Executor executor) {
+        if (hitThreshold < 1) throw new IllegalArgumentException("Hit threshold must be at least 1");
+        if (!(refreshFraction > 0 && refreshFraction < 1))
+            throw new IllegalArgumentException("Refresh fraction must be between 0 and 1");
+        if (maxPending < 1) throw new IllegalArgumentException("Pending refreshes must be at least 1");
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.cache = cache;
+        this.upstream = upstream;
+        this.hitThreshold = hitThreshold;
+        this.refreshFraction = refreshFraction;
+        this.maxPending = maxPending;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Caches a record, and starts a new lifetime for its record set: its hits are counted from zero, against the TTL
+     * of the record.
+     */
+    @Override
+    public void put(ResourceRecord rr) {
+        cache.put(rr);
+        long now = System.currentTimeMillis();
+        long expiration = rr.getExpirationTime();
+        if (expiration <= now) return;
+        QuestionKey key = QuestionKey.of(rr.getQuestion());
+        if (stats.size() >= capacity && !stats.containsKey(key))
+            SampledEviction.evict(stats, tracked -> tracked.expiration, now);
+        Stats s = stats.computeIfAbsent(key, k -> new Stats());
+        s.hits.set(0);
+        s.ttlMillis = expiration - now;
+        s.expiration = expiration;
+    }
+
+    /**
+     * Returns the cached records that answer the question, and refreshes them in the background if they are hot and
+     * about to expire.
+     */
+    @Override
+    public List<ResourceRecord> get(DNSQuestion question) {
+        List<ResourceRecord> records = cache.get(question);
+        QuestionKey key = QuestionKey.of(question);
+        if (records.isEmpty()) {
+            stats.remove(key);
+            return records;
+        }
+        Stats s = stats.get(key);
+        if (s == null) return records;
+        long expiration = 0;
+        for (ResourceRecord rr : records)
+            expiration = Math.max(expiration, rr.getExpirationTime());
+        if (s.hits.incrementAndGet() >= hitThreshold
+                && expiration - System.currentTimeMillis() <= s.ttlMillis * refreshFraction)
+            refresh(question, s);
+        return records;
+    }
+
+    private void refresh(DNSQuestion question, Stats s) {
+        if (!s.refreshing.compareAndSet(false, true)) return;
+        if (!pending.tryAcquire()) {
+            s.refreshing.set(false);
+            return;
+        }
+        CompletableFuture<DNSMessage> future;
+        try {
+            future = upstream.apply(question);
+        } catch (RuntimeException e) {
+            pending.release();
+            s.refreshing.set(false);
+            return;
+        }
+        future.whenCompleteAsync((response, error) -> {
+            try {
+                if (error == null && !response.getTC() && response.getRcode() == 0) putAll(response);
+                // A refresh that didn't renew the record set is not tried again until it has been hot once more
+                s.hits.set(0);
+            } finally {
+                s.refreshing.set(false);
+                pending.release();
+            }
+        }, executor);
+    }
+
+    @Override
+    public void remove(DNSQuestion question) {
+        cache.remove(question);
+        stats.remove(QuestionKey.of(question));
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        stats.clear();
+    }
+
+    @Override
+    public void forEach(Consumer<ResourceRecord> action) {
+        cache.forEach(action);
+    }
+
+    /**
+     * @return The number of refreshes sent upstream and not completed yet
+     */
+    public int pendingRefreshes() {
+        return maxPending - pending.availablePermits();
+    }
+}
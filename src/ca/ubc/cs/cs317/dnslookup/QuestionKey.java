@@ -0,0 +1,104 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The canonical form of a question, for use as a key in caches and tables of queries in flight. DNSQuestion keeps the
+ * name as it was given, so two questions that differ only in the case of their names, as they do when a resolver
+ * randomizes the case of its queries, are not equal. A key holds the name in lower case, without a trailing dot, and
+ * its hash is computed once, so keys for such questions are equal and looking one up in a map allocates nothing.
+ *
+ * The hash is the one returned by DNSPeek.questionHash(), so it can be compared with a hash peeked from a message.
+ */
+public final class QuestionKey {
+    private final DNSName name;
+    private final int typeCode;
+    private final int classCode;
+    private final int hash;
+
+    /**
+     * @param name      The question's name, in any case
+     * @param typeCode  The question's type code
+     * @param classCode The question's class code
+     */
+    public QuestionKey(DNSName name, int typeCode, int classCode) {
+        this.name = name.toLowerCase();
+        this.typeCode = typeCode;
+        this.classCode = classCode;
+        this.hash = DNSPeek.questionHash(name, typeCode, classCode);
+    }
+
+    /**
+     * @param question The question
+     * @return The key of the question
+     * @throws IllegalArgumentException if the question's name is not a valid name
+     */
+    public static QuestionKey of(DNSQuestion question) {
+        return new QuestionKey(DNSName.of(question.getHostName()), question.getTypeCode(), question.getClassCode());
+    }
+
+    /**
+     * Returns the key of the first question of a message, straight from the buffer, without decoding the message.
+     *
+     * @param message The buffer holding the message, from its position to its limit
+     * @return The key of the first question
+     * @throws IllegalArgumentException if the message has no question, or its first question is malformed
+     */
+    public static QuestionKey read(ByteBuffer message) {
+        if (!DNSPeek.hasHeader(message) || DNSPeek.peekCount(message, DNSSection.QUESTION) == 0)
+            throw new IllegalArgumentException("Message has no question");
+        // Compression pointers are offsets from the start of the message
+        ByteBuffer m = message.position() == 0 ? message : message.slice();
+        try {
+            DNSName name = DNSName.read(m, DNSPeek.HEADER_LENGTH);
+            int end = DNSName.end(m, DNSPeek.HEADER_LENGTH);
+            if (end + 4 > m.limit())
+                throw new IllegalArgumentException("Question runs past the end of the message");
+            return new QuestionKey(name, m.getShort(end) & 0xFFFF, m.getShort(end + 2) & 0xFFFF);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Question runs past the end of the message");
+        }
+    }
+
+    /**
+     * @return The name, in lower case
+     */
+    public DNSName getName() {
+        return name;
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public int getClassCode() {
+        return classCode;
+    }
+
+    /**
+     * @return A question for this key, with its name in lower case
+     */
+    public DNSQuestion toQuestion() {
+        return new DNSQuestion(name.toString(), typeCode, classCode);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuestionKey that = (QuestionKey) o;
+        return hash == that.hash && typeCode == that.typeCode && classCode == that.classCode
+                && Arrays.equals(name.wire(), that.name.wire());
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toQuestion().toString();
+    }
+}
@@ -0,0 +1,64 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A cache of resource records, grouped into record sets by question (owner name, type and class). Records are kept
+ * until they expire, so the records returned by get() carry what is left of their TTL, as reported by
+ * getRemainingTTL(). Implementations are thread-safe, and may evict record sets before they expire to stay within
+ * their capacity.
+ */
+public interface RecordCache {
+    /**
+     * Adds a record to the record set of its question. A record that is already cached has its expiration time
+     * extended if the new one expires later; an expired record is ignored.
+     *
+     * @param rr The record to be cached
+     */
+    void put(ResourceRecord rr);
+
+    /**
+     * Returns the cached records that answer the question.
+     *
+     * @param question The question to be answered
+     * @return The records that have not expired yet, or an empty list if there are none
+     */
+    List<ResourceRecord> get(DNSQuestion question);
+
+    /**
+     * Forgets the record set of a question, e.g. because a newer one is about to be cached.
+     *
+     * @param question The question whose records are to be removed
+     */
+    void remove(DNSQuestion question);
+
+    /**
+     * @return The number of record sets in the cache, including some that may have expired but not been removed yet.
+     */
+    int size();
+
+    void clear();
+
+    /**
+     * Passes every cached record that has not expired to the action, e.g. to take a snapshot of the cache. The action
+     * is not called with any lock held, and records cached or removed meanwhile may or may not be seen.
+     *
+     * @param action The action to be called with each record
+     */
+    void forEach(Consumer<ResourceRecord> action);
+
+    /**
+     * Caches every record of a response: its answers, authority records and additional records. The OPT record is not
+     * a real record, and is left out.
+     *
+     * @param response The response whose records are to be cached
+     */
+    default void putAll(DNSMessage response) {
+        for (SectionView section : List.of(response.answers(), response.authority(), response.additional())) {
+            for (int i = 0; i < section.size(); i++) {
+                if (section.get(i).getTypeCode() != RecordType.OPT.getCode()) put(section.getRR(i));
+            }
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package ca.ubc.cs.cs317.dnslookup;
 
-import java.util.Arrays;
-
 /** Record classes supported by the application.
  */
 public enum RecordClass {
-    IN (1), OTHER(0);
+    IN (1), CH (3), HS (4), NONE (254), ANY (255), OTHER(0);
+
+    // Indexed by code. Every known code is small, so a plain array gives constant-time lookups.
+    private static final RecordClass[] BY_CODE = new RecordClass[ANY.code + 1];
+
+    static {
+        for (RecordClass recordClass : values())
+            if (recordClass != OTHER) BY_CODE[recordClass.code] = recordClass;
+    }
 
     private final int code;
 
@@ -24,6 +30,7 @@ public enum RecordClass {
      * @return A record type that uses the specified code, or OTHER if no record type uses the code.
      */
     public static RecordClass getByCode(int code) {
-        return Arrays.stream(values()).filter(v -> v.code == code).findFirst().orElse(OTHER);
+        RecordClass recordClass = (code > 0 && code < BY_CODE.length) ? BY_CODE[code] : null;
+        return recordClass == null ? OTHER : recordClass;
     }
 }
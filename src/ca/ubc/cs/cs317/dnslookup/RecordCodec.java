@@ -0,0 +1,419 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding for batches of resource records, for shipping cache contents between processes or to
+ * disk. It is much smaller and faster than Java serialization, which writes class descriptors and field names, and a
+ * full copy of every name, for each record.
+ *
+ * A batch starts with a header holding the version and the time the batch was written, from which TTLs are counted.
+ * Each record is then written as:
+ * <pre>
+ *     owner name | type | class | TTL | data tag | data
+ * </pre>
+ * where the type, class and TTL (in seconds) are unsigned varints, 7 bits per byte with the high bit set on all but the
+ * last. Names are compressed much like in a DNS message, but against a dictionary shared by the whole batch: a name is
+ * written as the labels it does not share with a name seen before, followed by the dictionary index of the longest
+ * suffix it does share, so a name seen before takes a byte or two. Every new suffix is added to the dictionary, on
+ * both ends, in the same order. The data is written according to its tag: the raw bytes of an address, a name (for NS,
+ * CNAME and PTR records) compressed as above, or length-prefixed text or opaque bytes (including the RDATA of SOA and MX
+ * records).
+ *
+ * An Encoder and a Decoder each keep the dictionary of one batch, so a batch must be decoded in order, by a single
+ * Decoder. Records can be written to and read from a ByteBuffer or a DataOutput/DataInput stream, and neither needs
+ * the whole batch in memory.
+ */
+public final class RecordCodec {
+    public static final int VERSION = 1;
+    // The dictionary stops growing past this size, on both ends, so a huge batch can't take all the memory
+    static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    // Data tags
+    private static final int TEXT = 0;
+    private static final int NAME = 1;
+    private static final int IPV4 = 2;
+    private static final int IPV6 = 3;
+    private static final int RAW = 4;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Writes the records of one batch. Not thread-safe.
+     */
+    public static final class Encoder {
+        private final long baseTime;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> added = new ArrayList<>();
+        private ByteBuffer scratch = ByteBuffer.allocate(1024);
+        private boolean headerWritten;
+
+        /**
+         * Starts a batch whose TTLs are counted from now.
+         */
+        public Encoder() {
+            this(System.currentTimeMillis());
+        }
+
+        /**
+         * @param baseTime The time TTLs are counted from, in milliseconds since the epoch
+         */
+        public Encoder(long baseTime) {
+            this.baseTime = baseTime;
+        }
+
+        /**
+         * Writes a record at the buffer's position, preceded by the batch header if it is the first. If the record does
+         * not fit, nothing is written and the buffer's position is unchanged, so the record can be written again to
+         * another buffer.
+         *
+         * @param rr  The record to be written
+         * @param out The buffer to write to
+         * @throws BufferOverflowException if the record does not fit in the buffer
+         */
+        public void encode(ResourceRecord rr, ByteBuffer out) {
+            encode(rr);
+            if (out.remaining() < scratch.position()) {
+                rollback();
+                throw new BufferOverflowException();
+            }
+            out.put(scratch.array(), 0, scratch.position());
+            commit();
+        }
+
+        /**
+         * Writes a record to the stream, preceded by the batch header if it is the first.
+         *
+         * @param rr  The record to be written
+         * @param out The stream to write to
+         * @throws IOException if the stream can't be written
+         */
+        public void encode(ResourceRecord rr, DataOutput out) throws IOException {
+            encode(rr);
+            out.write(scratch.array(), 0, scratch.position());
+            commit();
+        }
+
+        private void encode(ResourceRecord rr) {
+            while (true) {
+                scratch.clear();
+                try {
+                    encodeTo(rr, scratch);
+                    return;
+                } catch (BufferOverflowException e) {
+                    rollback();
+                    scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+                }
+            }
+        }
+
+        private void encodeTo(ResourceRecord rr, ByteBuffer out) {
+            if (!headerWritten) out.put((byte) VERSION).putLong(baseTime);
+            DNSQuestion question = rr.getQuestion();
+            writeName(question.getHostName(), out);
+            writeVarint(question.getTypeCode(), out);
+            writeVarint(question.getClassCode(), out);
+            long ttl = (rr.getExpirationTime() - baseTime + 999) / 1000;
+            writeVarint((int) Math.max(0, Math.min(ttl, Integer.MAX_VALUE)), out);
+
+            int addressLength = rr.addressLength();
+            if (addressLength != 0) {
+                out.put((byte) (addressLength == 4 ? IPV4 : IPV6));
+                rr.writeAddress(out);
+            } else if (rr.getRawData() != null) {
+                out.put((byte) RAW);
+                writeVarint(rr.getRawData().length, out);
+                out.put(rr.getRawData());
+            } else if (isNameType(question.getTypeCode())) {
+                out.put((byte) NAME);
+                writeName(rr.getTextResult(), out);
+            } else {
+                out.put((byte) TEXT);
+                writeString(rr.getTextResult(), out);
+            }
+        }
+
+        /**
+         * Writes the labels before the longest suffix of the name found in the dictionary, then the index of the
+         * suffix, plus one, or 0 if there is none. Labels are what lies between dots, so any string can be written.
+         */
+        private void writeName(String name, ByteBuffer out) {
+            int labels = 0;
+            int suffix = 0;
+            int prefixEnd = name.length(); // the new labels are in [0, prefixEnd)
+            for (int start = 0; ; labels++) {
+                Integer index = dictionary.get(start == 0 ? name : name.substring(start));
+                if (index != null) {
+                    suffix = index + 1;
+                    prefixEnd = start - 1;
+                    break;
+                }
+                int dot = name.indexOf('.', start);
+                if (dot < 0) {
+                    labels++;
+                    break;
+                }
+                start = dot + 1;
+            }
+            writeVarint(labels, out);
+            int[] starts = new int[labels];
+            for (int i = 0, start = 0; i < labels; i++) {
+                int end = i == labels - 1 ? prefixEnd : name.indexOf('.', start);
+                starts[i] = start;
+                writeString(name.substring(start, end), out);
+                start = end + 1;
+            }
+            writeVarint(suffix, out);
+            // New suffixes are added shortest first, as the decoder builds them
+            for (int i = labels - 1; i >= 0; i--)
+                add(name.substring(starts[i]));
+        }
+
+        private void add(String suffix) {
+            if (dictionary.size() >= MAX_DICTIONARY_SIZE) return;
+            dictionary.put(suffix, dictionary.size());
+            added.add(suffix);
+        }
+
+        private void commit() {
+            headerWritten = true;
+            added.clear();
+        }
+
+        private void rollback() {
+            for (String suffix : added)
+                dictionary.remove(suffix);
+            added.clear();
+        }
+    }
+
+    /**
+     * Reads the records of one batch, in the order they were written. Not thread-safe.
+     */
+    public static final class Decoder {
+        private final List<String> dictionary = new ArrayList<>();
+        private long baseTime;
+        private boolean headerRead;
+
+        /**
+         * Reads the next record from the buffer, after the batch header if it is the first. If the buffer ends in the
+         * middle of the record, nothing is read: the buffer's position and the decoder are unchanged, so the record can
+         * be read again once the rest of it is in the buffer.
+         *
+         * @param in The buffer to read from
+         * @return The record, or null if the buffer has no bytes remaining
+         * @throws IllegalArgumentException if the batch is malformed
+         * @throws BufferUnderflowException if the buffer ends in the middle of a record
+         */
+        public ResourceRecord decode(ByteBuffer in) {
+            if (!in.hasRemaining()) return null;
+            int position = in.position();
+            int dictionarySize = dictionary.size();
+            boolean wasHeaderRead = headerRead;
+            try {
+                return decode(new BufferInput(in));
+            } catch (BufferUnderflowException e) {
+                in.position(position);
+                dictionary.subList(dictionarySize, dictionary.size()).clear();
+                headerRead = wasHeaderRead;
+                throw e;
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // Can't happen, buffers are read directly
+            }
+        }
+
+        /**
+         * Reads the next record from the stream, after the batch header if it is the first.
+         *
+         * @param in The stream to read from
+         * @return The record, or null if the stream has ended
+         * @throws EOFException if the stream ends in the middle of a record
+         * @throws IOException if the stream can't be read
+         * @throws IllegalArgumentException if the batch is malformed
+         */
+        public ResourceRecord decode(DataInput in) throws IOException {
+            int first;
+            try {
+                first = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            return decode(new StreamInput(in, first));
+        }
+
+        private ResourceRecord decode(Input in) throws IOException {
+            if (!headerRead) {
+                int version = in.readUnsignedByte();
+                if (version != VERSION)
+                    throw new IllegalArgumentException("Unsupported record batch version: " + version);
+                baseTime = 0;
+                for (int i = 0; i < 8; i++)
+                    baseTime = (baseTime << 8) | in.readUnsignedByte();
+                headerRead = true;
+            }
+            String name = readName(in);
+            int typeCode = readVarint(in);
+            int classCode = readVarint(in);
+            int ttl = readVarint(in);
+            DNSQuestion question = new DNSQuestion(name, typeCode, classCode);
+            ResourceRecord rr;
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case IPV4:
+                    rr = new ResourceRecord(question, 0, readInt(in));
+                    break;
+                case IPV6:
+                    rr = new ResourceRecord(question, 0, readLong(in), readLong(in));
+                    break;
+                case RAW:
+                    rr = new ResourceRecord(question, 0, readBytes(in));
+                    break;
+                case NAME:
+                    rr = new ResourceRecord(question, 0, readName(in));
+                    break;
+                case TEXT:
+                    rr = new ResourceRecord(question, 0, readString(in));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad data tag " + tag);
+            }
+            rr.setExpirationTime(baseTime + ttl * 1000L);
+            return rr;
+        }
+
+        private String readName(Input in) throws IOException {
+            int labels = readVarint(in);
+            String[] read = new String[labels];
+            for (int i = 0; i < labels; i++)
+                read[i] = readString(in);
+            int suffix = readVarint(in);
+            if (suffix > dictionary.size())
+                throw new IllegalArgumentException("Bad name reference " + suffix);
+            String name = suffix == 0 ? null : dictionary.get(suffix - 1);
+            for (int i = labels - 1; i >= 0; i--) {
+                name = name == null ? read[i] : read[i] + "." + name;
+                if (dictionary.size() < MAX_DICTIONARY_SIZE) dictionary.add(name);
+            }
+            if (name == null) throw new IllegalArgumentException("Empty name");
+            return name;
+        }
+    }
+
+    private static boolean isNameType(int typeCode) {
+        return typeCode == RecordType.NS.getCode() || typeCode == RecordType.CNAME.getCode()
+                || typeCode == RecordType.PTR.getCode();
+    }
+
+    static void writeVarint(int value, ByteBuffer out) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void writeString(String s, ByteBuffer out) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length, out);
+        out.put(bytes);
+    }
+
+    /**
+     * The few reads the decoder needs, from either a buffer or a stream.
+     */
+    private interface Input {
+        int readUnsignedByte() throws IOException;
+
+        void readFully(byte[] b, int off, int len) throws IOException;
+    }
+
+    private static final class BufferInput implements Input {
+        final ByteBuffer in;
+
+        BufferInput(ByteBuffer in) {
+            this.in = in;
+        }
+
+        @Override
+        public int readUnsignedByte() {
+            return in.get() & 0xFF;
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) {
+            in.get(b, off, len);
+        }
+    }
+
+    private static final class StreamInput implements Input {
+        final DataInput in;
+        int first; // the byte already read to detect the end of the stream, or -1
+
+        StreamInput(DataInput in, int first) {
+            this.in = in;
+            this.first = first;
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            if (first < 0) return in.readUnsignedByte();
+            int b = first;
+            first = -1;
+            return b;
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            if (len > 0 && first >= 0) {
+                b[off++] = (byte) readUnsignedByte();
+                len--;
+            }
+            in.readFully(b, off, len);
+        }
+    }
+
+    static int readVarint(Input in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private static int readInt(Input in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++)
+            value = (value << 8) | in.readUnsignedByte();
+        return value;
+    }
+
+    private static long readLong(Input in) throws IOException {
+        return ((long) readInt(in) << 32) | (readInt(in) & 0xFFFFFFFFL);
+    }
+
+    private static byte[] readBytes(Input in) throws IOException {
+        int length = readVarint(in);
+        if (length > DNSMessage.MAX_MESSAGE_LENGTH) throw new IllegalArgumentException("Bad length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes, 0, length);
+        return bytes;
+    }
+
+    private static String readString(Input in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,177 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A resource record as it sits in a received message: its fixed header fields (type, class and TTL) and the offset and
+ * length of its RDATA. Decoding a slice only reads those fields and skips the RDATA using RDLENGTH, so records that a
+ * caller is not interested in cost a few reads. The owner name and the type-specific RDATA are only decoded when they
+ * are asked for.
+ *
+ * A slice reads from the message's buffer, so it is only valid until the message is reset or rewrapped.
+ */
+public final class RecordSlice {
+    private final ByteBuffer message;
+    private final int offset;
+    private final int typeCode;
+    private final int classCode;
+    private final int ttl;
+    private final int rdataOffset;
+    private final int rdataLength;
+    private DNSName name;
+
+    /**
+     * Decodes the header of the resource record that starts at the given offset.
+     *
+     * @param message The buffer holding the whole message, with the header at index 0
+     * @param offset  The offset of the first byte of the record's owner name
+     * @throws IllegalArgumentException if the record runs past the end of the message
+     */
+    RecordSlice(ByteBuffer message, int offset) {
+        this.message = message;
+        this.offset = offset;
+        int pos = DNSName.end(message, offset);
+        if (pos + 10 > message.limit())
+            throw new IllegalArgumentException("Record at offset " + offset + " runs past the end of the message");
+        this.typeCode = message.getShort(pos) & 0xFFFF;
+        this.classCode = message.getShort(pos + 2) & 0xFFFF;
+        this.ttl = message.getInt(pos + 4);
+        this.rdataLength = message.getShort(pos + 8) & 0xFFFF;
+        this.rdataOffset = pos + 10;
+        if (rdataOffset + rdataLength > message.limit())
+            throw new IllegalArgumentException("Record at offset " + offset + " runs past the end of the message");
+    }
+
+    /**
+     * Returns the offset just past the resource record that starts at the given offset, using its RDLENGTH to skip
+     * the RDATA. Nothing is decoded or allocated.
+     *
+     * @param message The buffer holding the whole message
+     * @param offset  The offset of the first byte of the record's owner name
+     * @return The offset of the first byte after the record
+     */
+    static int end(ByteBuffer message, int offset) {
+        int pos = DNSName.end(message, offset) + 8;
+        if (pos + 2 > message.limit())
+            throw new IllegalArgumentException("Record at offset " + offset + " runs past the end of the message");
+        int end = pos + 2 + (message.getShort(pos) & 0xFFFF);
+        if (end > message.limit())
+            throw new IllegalArgumentException("Record at offset " + offset + " runs past the end of the message");
+        return end;
+    }
+
+    /**
+     * @return The buffer holding the whole message, with the header at index 0, for decoding RDATA that holds
+     * compressed names.
+     */
+    ByteBuffer getMessage() {
+        return message;
+    }
+
+    /**
+     * @return The offset of the record in the message, i.e., of the first byte of its owner name.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The offset of the first byte after the record.
+     */
+    public int getEnd() {
+        return rdataOffset + rdataLength;
+    }
+
+    /**
+     * @return The record's owner name, decoded the first time it is asked for.
+     */
+    public DNSName getName() {
+        if (name == null) name = DNSName.read(message, offset);
+        return name;
+    }
+
+    public String getHostName() {
+        return getName().toString();
+    }
+
+    public RecordType getRecordType() {
+        return RecordType.getByCode(typeCode);
+    }
+
+    public RecordClass getRecordClass() {
+        return RecordClass.getByCode(classCode);
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public int getClassCode() {
+        return classCode;
+    }
+
+    public int getTTL() {
+        return ttl;
+    }
+
+    public int getRDataOffset() {
+        return rdataOffset;
+    }
+
+    public int getRDataLength() {
+        return rdataLength;
+    }
+
+    /**
+     * @return A copy of the record's RDATA, exactly as it appears in the message.
+     */
+    public byte[] getRData() {
+        byte[] data = new byte[rdataLength];
+        message.get(rdataOffset, data);
+        return data;
+    }
+
+    /**
+     * Decodes the whole record. Addresses (A and AAAA) and names (NS, CNAME and PTR) are decoded into their usual
+     * representation. SOA and MX records are kept as their RDATA with the names decompressed, which SOARecord can
+     * decode, and which keeps the preference of an MX record. Any other type, including types this application does not know, is kept as an opaque copy of its RDATA
+     * so that it can be added to another message unchanged. Names are interned, since the same few
+     * names recur across the records of a cache.
+     *
+     * @return The decoded resource record
+     * @throws IllegalArgumentException if the RDATA is malformed for the record's type
+     */
+    public ResourceRecord toResourceRecord() {
+        DNSQuestion question = new DNSQuestion(getHostName().intern(), typeCode, classCode);
+        switch (question.getRecordType()) {
+            case A:
+            case AAAA:
+                int expected = question.getRecordType() == RecordType.A ? 4 : 16;
+                if (rdataLength != expected)
+                    throw new IllegalArgumentException("Bad " + question.getRecordType() + " record length "
+                            + rdataLength + " at offset " + offset);
+                if (expected == 4) return new ResourceRecord(question, ttl, message.getInt(rdataOffset));
+                return new ResourceRecord(question, ttl, message.getLong(rdataOffset), message.getLong(rdataOffset + 8));
+            case NS:
+            case CNAME:
+            case PTR:
+                return new ResourceRecord(question, ttl, DNSName.read(message, rdataOffset).toString().intern());
+            case MX:
+                if (rdataLength < 3 || DNSName.end(message, rdataOffset + 2) != getEnd())
+                    throw new IllegalArgumentException("Bad MX record length " + rdataLength + " at offset " + offset);
+                return new ResourceRecord(question, ttl, ResourceRecord.mxRData(message.getShort(rdataOffset) & 0xFFFF,
+                        DNSName.read(message, rdataOffset + 2)));
+            case SOA:
+                // Kept as RDATA, with its names decompressed so that it can be added to another message
+                return new ResourceRecord(question, ttl, SOARecord.from(this).toRData());
+            default:
+                return new ResourceRecord(question, ttl, getRData());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getHostName() + " (" + (getRecordType() == RecordType.OTHER ? "TYPE" + typeCode : getRecordType())
+                + ") ttl=" + ttl + " rdlength=" + rdataLength + "]";
+    }
+}
@@ -1,13 +1,20 @@
 package ca.ubc.cs.cs317.dnslookup;
 
-import java.util.Arrays;
-
 /**
  * Record types supported by the application. Includes a few common record types that are not
  * fully supported by this application, but that are sometimes returned by nameservers for regular DNS queries.
  */
 public enum RecordType {
-    A(1), NS(2), CNAME(5), SOA(6), MX(15), AAAA(28), OTHER(0);
+    A(1), NS(2), CNAME(5), SOA(6), PTR(12), MX(15), TXT(16), AAAA(28), SRV(33), OPT(41), DS(43), RRSIG(46),
+    DNSKEY(48), SVCB(64), HTTPS(65), CAA(257), OTHER(0);
+
+    // Indexed by code. Every known code is small, so a plain array gives constant-time lookups.
+    private static final RecordType[] BY_CODE = new RecordType[CAA.code + 1];
+
+    static {
+        for (RecordType type : values())
+            if (type != OTHER) BY_CODE[type.code] = type;
+    }
 
     private final int code;
 
@@ -27,6 +34,7 @@ public enum RecordType {
      * @return A record type that uses the specified code, or OTHER if no record type uses the code.
      */
     public static RecordType getByCode(int code) {
-        return Arrays.stream(values()).filter(v -> v.code == code).findFirst().orElse(OTHER);
+        RecordType type = (code > 0 && code < BY_CODE.length) ? BY_CODE[code] : null;
+        return type == null ? OTHER : type;
     }
 }
@@ -2,21 +2,45 @@ package ca.ubc.cs.cs317.dnslookup;
 
 import java.io.Serializable;
 import java.net.InetAddress;
-import java.util.Date;
-import java.util.Objects;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A resource record corresponds to each individual result returned by a DNS response. It links a DNS question (host
  * name, type and class) to either an IP address (e.g., for A or AAAA records) or a textual response (e.g., for CNAME or
  * NS records). An expiration time is also specified, and computed based on the TTL provided when the record is
  * created.
+ *
+ * Records are kept compact, since a cache may hold millions of them: the expiration time is a primitive, an address is
+ * kept as its bits in two longs, and the InetAddress and text form of an address (or of opaque data) are only built
+ * when they are asked for.
  */
 public class ResourceRecord implements Serializable {
+    // What the record's data is
+    private static final byte TEXT = 0;
+    private static final byte IPV4 = 1;
+    private static final byte IPV6 = 2;
+    private static final byte RAW = 3;
 
     private final DNSQuestion question;
-    private Date expirationTime;
-    private final String textResult;
-    private InetAddress inetResult;
+    private long expirationTime; // in milliseconds since the epoch
+    private final byte kind;
+    private final String textResult; // null for addresses and opaque data, whose text is built when asked for
+    private final long addressHigh; // the first 8 bytes of an IPv6 address
+    private final long addressLow; // the last 8 bytes of an IPv6 address, or an IPv4 address in its low 32 bits
+    private final byte[] rawData;
+
+    private ResourceRecord(DNSQuestion question, int ttl, byte kind, String textResult, long addressHigh,
+                           long addressLow, byte[] rawData) {
+        this.question = question;
+        this.expirationTime = System.currentTimeMillis() + ((long) ttl * 1000);
+        this.kind = kind;
+        this.textResult = textResult;
+        this.addressHigh = addressHigh;
+        this.addressLow = addressLow;
+        this.rawData = rawData;
+    }
 
     /**
      * Creates a new resource record based on a string result, without an InetAddress.
@@ -24,26 +48,82 @@ public class ResourceRecord implements Serializable {
      * @param question Question object containing the host name (FQDN), type and class associated to this record.
      * @param ttl      Number of seconds to keep this record in cache.
      * @param result   The string representation associated to the record's result. Its meaning depends on the type, but
-     *                 for CNAME, NS and MX it represents the FQDN of the host associated to this record.
+     *                 for CNAME, NS and MX it represents the FQDN of the host associated to this record. An MX record
+     *                 is kept as its RDATA, with a preference of 0.
+     * @throws IllegalArgumentException if the record is an MX record and the result is not a valid name
      */
     public ResourceRecord(DNSQuestion question, int ttl, String result) {
-        this.question = question;
-        this.expirationTime = new Date(System.currentTimeMillis() + ((long) ttl * 1000));
-        this.textResult = result;
-        this.inetResult = null;
+        this(question, ttl, isMX(question) ? RAW : TEXT, isMX(question) ? null : result, 0, 0,
+                isMX(question) ? mxRData(0, DNSName.of(result)) : null);
     }
 
     /**
      * Creates a new resource record based on an InetAddress result (typically an A or AAAA record). The string
-     * representation is also saved based on the getHostAddress method of InetAddress.
+     * representation is based on the getHostAddress method of InetAddress.
      *
      * @param question Question object containing the host name (FQDN), type and class associated to this record.
      * @param ttl      Number of seconds to keep this record in cache.
      * @param result   The InetAddress object associated to the record's result.
      */
     public ResourceRecord(DNSQuestion question, int ttl, InetAddress result) {
-        this(question, ttl, result.getHostAddress());
-        this.inetResult = result;
+        this(question, ttl, ByteBuffer.wrap(result.getAddress()));
+    }
+
+    private ResourceRecord(DNSQuestion question, int ttl, ByteBuffer address) {
+        this(question, ttl, address.remaining() == 4 ? IPV4 : IPV6, null,
+                address.remaining() == 4 ? 0 : address.getLong(0),
+                address.remaining() == 4 ? address.getInt(0) & 0xFFFFFFFFL : address.getLong(8), null);
+    }
+
+    /**
+     * Creates an A record from the address's 32 bits, without building an InetAddress.
+     */
+    ResourceRecord(DNSQuestion question, int ttl, int ipv4) {
+        this(question, ttl, IPV4, null, 0, ipv4 & 0xFFFFFFFFL, null);
+    }
+
+    /**
+     * Creates an AAAA record from the address's 128 bits, without building an InetAddress.
+     */
+    ResourceRecord(DNSQuestion question, int ttl, long high, long low) {
+        this(question, ttl, IPV6, null, high, low, null);
+    }
+
+    /**
+     * Creates a new resource record whose data is kept as opaque bytes, typically for a type that this application
+     * does not decode. The string representation is the hex value of the data.
+     *
+     * @param question Question object containing the host name (FQDN), type and class associated to this record.
+     * @param ttl      Number of seconds to keep this record in cache.
+     * @param rawData  The record's RDATA, exactly as it appears on the wire. It must not be modified afterwards.
+     */
+    public ResourceRecord(DNSQuestion question, int ttl, byte[] rawData) {
+        this(question, ttl, RAW, null, 0, 0, rawData);
+    }
+
+    private static boolean isMX(DNSQuestion question) {
+        return question.getTypeCode() == RecordType.MX.getCode();
+    }
+
+    /**
+     * @return The RDATA of an MX record: the preference, then the exchange, uncompressed
+     */
+    static byte[] mxRData(int preference, DNSName exchange) {
+        byte[] wire = exchange.wire();
+        byte[] rdata = new byte[2 + wire.length];
+        rdata[0] = (byte) (preference >> 8);
+        rdata[1] = (byte) preference;
+        System.arraycopy(wire, 0, rdata, 2, wire.length);
+        return rdata;
+    }
+
+    /**
+     * @return A record with the same question, data and expiration time, which can be updated independently of this one
+     */
+    ResourceRecord copy() {
+        ResourceRecord copy = new ResourceRecord(question, 0, kind, textResult, addressHigh, addressLow, rawData);
+        copy.expirationTime = expirationTime;
+        return copy;
     }
 
     public DNSQuestion getQuestion() {
@@ -70,7 +150,23 @@ public class ResourceRecord implements Serializable {
      * @return The number of seconds, rounded up, until this record expires.
      */
     public long getRemainingTTL() {
-        return (expirationTime.getTime() - System.currentTimeMillis() + 999) / 1000;
+        return (expirationTime - System.currentTimeMillis() + 999) / 1000;
+    }
+
+    /**
+     * @return The time at which this record expires, in milliseconds since the epoch (as System.currentTimeMillis()).
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    /**
+     * Sets the time at which this record expires, e.g. for a record restored from a snapshot taken earlier.
+     *
+     * @param expirationTime The time, in milliseconds since the epoch
+     */
+    void setExpirationTime(long expirationTime) {
+        this.expirationTime = expirationTime;
     }
 
     /**
@@ -80,7 +176,7 @@ public class ResourceRecord implements Serializable {
      * @return true if this record has expired, and false otherwise.
      */
     public boolean isExpired() {
-        return !expirationTime.after(new Date());
+        return expirationTime <= System.currentTimeMillis();
     }
 
     /**
@@ -90,16 +186,76 @@ public class ResourceRecord implements Serializable {
      * @param record Another resource record with potentially new information.
      */
     public void update(ResourceRecord record) {
-        if (this.expirationTime.before(record.expirationTime))
+        if (this.expirationTime < record.expirationTime)
             this.expirationTime = record.expirationTime;
     }
 
+    /**
+     * @return The text form of the record's data. For an address or opaque data, it is built on every call. The data of
+     * an SOA record is shown as its fields, that of an MX record as its exchange (its preference is in the RDATA), and
+     * other opaque data in hex.
+     */
     public String getTextResult() {
-        return textResult;
+        if (kind == TEXT) return textResult;
+        if (kind == RAW) {
+            if (question.getTypeCode() == RecordType.SOA.getCode()) {
+                try {
+                    return SOARecord.from(this).toString();
+                } catch (IllegalArgumentException e) {
+                    // Not a well-formed SOA record, shown in hex
+                }
+            } else if (isMX(question) && DNSMessage.isUncompressedName(rawData, 2)) {
+                return DNSName.read(ByteBuffer.wrap(rawData), 2).toString();
+            }
+            return DNSMessage.byteArrayToHexString(rawData);
+        }
+        return getInetResult().getHostAddress();
     }
 
+    /**
+     * @return The record's address, built on every call, or null if the record's data is not an address.
+     */
     public InetAddress getInetResult() {
-        return inetResult;
+        if (kind != IPV4 && kind != IPV6) return null;
+        ByteBuffer address = ByteBuffer.allocate(kind == IPV4 ? 4 : 16);
+        writeAddress(address);
+        try {
+            return InetAddress.getByAddress(address.array());
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // Can't happen, the address has the right length
+        }
+    }
+
+    /**
+     * @return The length of the record's address, 4 or 16, or 0 if the record's data is not an address.
+     */
+    int addressLength() {
+        return kind == IPV4 ? 4 : kind == IPV6 ? 16 : 0;
+    }
+
+    /**
+     * Writes the bytes of the record's address at the buffer's position, if the record's data is an address.
+     *
+     * @param buffer The buffer to write the address to
+     * @return false if the record's data is not an address, and nothing was written
+     */
+    boolean writeAddress(ByteBuffer buffer) {
+        if (kind == IPV4) {
+            buffer.putInt((int) addressLow);
+        } else if (kind == IPV6) {
+            buffer.putLong(addressHigh);
+            buffer.putLong(addressLow);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The record's RDATA for records created from opaque data, or null otherwise. It must not be modified.
+     */
+    public byte[] getRawData() {
+        return rawData;
     }
 
     @Override
@@ -107,16 +263,45 @@ public class ResourceRecord implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ResourceRecord that = (ResourceRecord) o;
-        return question.equals(that.question) && textResult.equals(that.textResult) && Objects.equals(inetResult, that.inetResult);
+        return question.equals(that.question) && sameData(that);
+    }
+
+    /**
+     * Compares the data of two records, whatever their questions, e.g. for records of one record set whose owner
+     * names differ only in case.
+     *
+     * @return true if the records hold the same data
+     */
+    boolean sameData(ResourceRecord that) {
+        if (kind != that.kind) return false;
+        switch (kind) {
+            case TEXT:
+                return textResult.equals(that.textResult);
+            case RAW:
+                return Arrays.equals(rawData, that.rawData);
+            default:
+                return addressHigh == that.addressHigh && addressLow == that.addressLow;
+        }
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(question, textResult, inetResult);
+        int data;
+        switch (kind) {
+            case TEXT:
+                data = textResult.hashCode();
+                break;
+            case RAW:
+                data = Arrays.hashCode(rawData);
+                break;
+            default:
+                data = Long.hashCode(addressHigh) * 31 + Long.hashCode(addressLow);
+        }
+        return 31 * question.hashCode() + data;
     }
 
     @Override
     public String toString() {
-        return "[" + question + " -> " + textResult + "]";
+        return "[" + question + " -> " + getTextResult() + "]";
     }
 }
@@ -0,0 +1,146 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * The RDATA of an SOA record (RFC 1035, section 3.3.13), which marks the start of a zone. Negative caching (RFC 2308)
+ * is its main use here: the TTL of a negative answer is the smaller of the SOA record's TTL and its MINIMUM field.
+ *
+ * SOA records are kept in a ResourceRecord as their RDATA, with the two names uncompressed (see
+ * RecordSlice.toResourceRecord()), and are decoded from it, or straight from a message, by from().
+ */
+public final class SOARecord {
+    private static final int FIXED_LENGTH = 20; // SERIAL, REFRESH, RETRY, EXPIRE and MINIMUM
+
+    private final DNSName mname;
+    private final DNSName rname;
+    private final long serial;
+    private final long refresh;
+    private final long retry;
+    private final long expire;
+    private final long minimum;
+
+    /**
+     * @param mname   The name of the zone's primary name server
+     * @param rname   The mailbox of the person responsible for the zone, as a name
+     * @param serial  The version of the zone
+     * @param refresh The number of seconds between checks of the zone by secondaries
+     * @param retry   The number of seconds before a failed check is retried
+     * @param expire  The number of seconds after which a secondary stops answering if it can't check the zone
+     * @param minimum The number of seconds a negative answer may be cached (RFC 2308)
+     */
+    public SOARecord(DNSName mname, DNSName rname, long serial, long refresh, long retry, long expire, long minimum) {
+        this.mname = mname;
+        this.rname = rname;
+        this.serial = serial;
+        this.refresh = refresh;
+        this.retry = retry;
+        this.expire = expire;
+        this.minimum = minimum;
+    }
+
+    /**
+     * Decodes the SOA record in a received message, following compression pointers in its names.
+     *
+     * @param slice The record
+     * @return The decoded RDATA
+     * @throws IllegalArgumentException if the record is not a well-formed SOA record
+     */
+    public static SOARecord from(RecordSlice slice) {
+        if (slice.getTypeCode() != RecordType.SOA.getCode())
+            throw new IllegalArgumentException("Record at offset " + slice.getOffset() + " is not an SOA record");
+        return read(slice.getMessage(), slice.getRDataOffset(), slice.getRDataOffset() + slice.getRDataLength());
+    }
+
+    /**
+     * Decodes the RDATA of an SOA record kept in a ResourceRecord.
+     *
+     * @param rr The record
+     * @return The decoded RDATA
+     * @throws IllegalArgumentException if the record is not a well-formed SOA record
+     */
+    public static SOARecord from(ResourceRecord rr) {
+        if (rr.getQuestion().getTypeCode() != RecordType.SOA.getCode() || rr.getRawData() == null)
+            throw new IllegalArgumentException("Not an SOA record: " + rr.getQuestion());
+        byte[] rdata = rr.getRawData();
+        return read(ByteBuffer.wrap(rdata), 0, rdata.length);
+    }
+
+    private static SOARecord read(ByteBuffer message, int start, int end) {
+        try {
+            DNSName mname = DNSName.read(message, start);
+            int pos = DNSName.end(message, start);
+            DNSName rname = DNSName.read(message, pos);
+            pos = DNSName.end(message, pos);
+            if (pos + FIXED_LENGTH != end)
+                throw new IllegalArgumentException("Bad SOA record length at offset " + start);
+            return new SOARecord(mname, rname, message.getInt(pos) & 0xFFFFFFFFL,
+                    message.getInt(pos + 4) & 0xFFFFFFFFL, message.getInt(pos + 8) & 0xFFFFFFFFL,
+                    message.getInt(pos + 12) & 0xFFFFFFFFL, message.getInt(pos + 16) & 0xFFFFFFFFL);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("SOA record at offset " + start + " runs past its end");
+        }
+    }
+
+    /**
+     * @return The RDATA, with both names uncompressed
+     */
+    public byte[] toRData() {
+        ByteBuffer rdata = ByteBuffer.allocate(mname.length() + rname.length() + FIXED_LENGTH);
+        mname.writeTo(rdata);
+        rname.writeTo(rdata);
+        rdata.putInt((int) serial).putInt((int) refresh).putInt((int) retry).putInt((int) expire).putInt((int) minimum);
+        return rdata.array();
+    }
+
+    public DNSName getMName() {
+        return mname;
+    }
+
+    public DNSName getRName() {
+        return rname;
+    }
+
+    public long getSerial() {
+        return serial;
+    }
+
+    public long getRefresh() {
+        return refresh;
+    }
+
+    public long getRetry() {
+        return retry;
+    }
+
+    public long getExpire() {
+        return expire;
+    }
+
+    public long getMinimum() {
+        return minimum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SOARecord that = (SOARecord) o;
+        return serial == that.serial && refresh == that.refresh && retry == that.retry && expire == that.expire
+                && minimum == that.minimum && mname.equals(that.mname) && rname.equals(that.rname);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mname, rname, serial, refresh, retry, expire, minimum);
+    }
+
+    /**
+     * @return The fields in master file order, e.g. "ns1.cs.ubc.ca hostmaster.cs.ubc.ca 2024010101 3600 900 604800 300"
+     */
+    @Override
+    public String toString() {
+        return mname + " " + rname + " " + serial + " " + refresh + " " + retry + " " + expire + " " + minimum;
+    }
+}
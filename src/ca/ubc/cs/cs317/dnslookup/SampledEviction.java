@@ -0,0 +1,79 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Approximate eviction for the caches kept in a ConcurrentHashMap: rather than keeping their entries in expiration
+ * order, a few entries are sampled from a random part of the map and the one closest to expiring is removed.
+ *
+ * A ConcurrentHashMap can't be indexed, so the sample is a run of consecutive entries. It is found by splitting the
+ * map's spliterator, each split halving the range of the hash table it covers in constant time, and keeping either
+ * half at random until the range is expected to hold about twice the number of samples. Sampling then costs O(log n)
+ * whatever the size of the map, and every part of the table is as likely to lose an entry.
+ */
+final class SampledEviction {
+    static final int SAMPLES = 5;
+
+    private SampledEviction() {
+    }
+
+    /**
+     * Removes an expired entry if one is found among a few sampled, or the one closest to expiring otherwise.
+     *
+     * @param map        The map to remove an entry from
+     * @param expiration The expiration time of an entry's value
+     * @param now        The current time, in the same unit as expiration times
+     * @return true if an entry was removed
+     */
+    static <K, V> boolean evict(ConcurrentHashMap<K, V> map, ToLongFunction<V> expiration, long now) {
+        Spliterator<Map.Entry<K, V>> region = map.entrySet().spliterator();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long size = map.mappingCount(); size > 2 * SAMPLES; size >>>= 1) {
+            Spliterator<Map.Entry<K, V>> upper = region.trySplit();
+            if (upper == null) break;
+            if (random.nextBoolean()) region = upper;
+        }
+        Victim<K, V> victim = new Victim<>(expiration, now);
+        sample(region, victim);
+        // The region may have come out empty; the start of the map is then as good a sample as any
+        if (victim.entry == null) sample(map.entrySet().spliterator(), victim);
+        return victim.entry != null && map.remove(victim.entry.getKey(), victim.entry.getValue());
+    }
+
+    private static <K, V> void sample(Spliterator<Map.Entry<K, V>> entries, Victim<K, V> victim) {
+        int sampled = 0;
+        while (sampled < SAMPLES && !victim.expired && entries.tryAdvance(victim))
+            sampled++;
+    }
+
+    /**
+     * The sampled entry closest to expiring so far.
+     */
+    private static final class Victim<K, V> implements Consumer<Map.Entry<K, V>> {
+        final ToLongFunction<V> expiration;
+        final long now;
+        Map.Entry<K, V> entry;
+        long expiresAt;
+        boolean expired;
+
+        Victim(ToLongFunction<V> expiration, long now) {
+            this.expiration = expiration;
+            this.now = now;
+        }
+
+        @Override
+        public void accept(Map.Entry<K, V> candidate) {
+            long candidateExpiresAt = expiration.applyAsLong(candidate.getValue());
+            if (entry == null || candidateExpiresAt < expiresAt) {
+                entry = candidate;
+                expiresAt = candidateExpiresAt;
+                expired = expiresAt <= now;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of the resource records in one section of a message. The message is indexed once, so any record
+ * can be reached directly, and each record is only decoded (as a RecordSlice) when it is retrieved.
+ *
+ * Like the slices it returns, a view is only valid until the message is reset or rewrapped.
+ */
+public final class SectionView extends AbstractList<RecordSlice> implements RandomAccess {
+    private final DNSMessage message;
+    private final DNSSection section;
+
+    SectionView(DNSMessage message, DNSSection section) {
+        if (section == DNSSection.QUESTION)
+            throw new IllegalArgumentException("The question section does not hold resource records");
+        this.message = message;
+        this.section = section;
+    }
+
+    public DNSSection getSection() {
+        return section;
+    }
+
+    @Override
+    public RecordSlice get(int i) {
+        return message.getRecordSlice(section, i);
+    }
+
+    /**
+     * Decodes the whole i-th record of the section.
+     *
+     * @param i The index of the record in the section
+     * @return The decoded resource record
+     */
+    public ResourceRecord getRR(int i) {
+        return get(i).toResourceRecord();
+    }
+
+    @Override
+    public int size() {
+        return message.getCount(section);
+    }
+}
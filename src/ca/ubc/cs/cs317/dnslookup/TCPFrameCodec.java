@@ -0,0 +1,178 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The framing of DNS messages over TCP (RFC 1035, section 4.2.2, and RFC 7766): each message is preceded by its length
+ * as a 16-bit unsigned integer.
+ *
+ * Encoding writes the prefix and the message straight from the message's buffer. Decoding is streaming: bytes are
+ * read from a channel (or fed in) in chunks of any size, and next() returns each complete message in turn, however
+ * the stream was split. A single read may hold several pipelined messages, and a message may span several reads.
+ * Decoded messages wrap the codec's buffer, so nothing is copied, but they are only valid until the next call to
+ * read() or feed(), which reuse the buffer. A message that must be kept longer should be copied with getUsed().
+ *
+ * A codec keeps the state of one stream, so each connection needs its own, and it is not thread-safe.
+ */
+public final class TCPFrameCodec {
+    public static final int PREFIX_LENGTH = 2;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    // Received bytes are in [start, in.position()); in stays in fill mode
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private int start;
+    private final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LENGTH);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+
+    /**
+     * Writes the length prefix and the message (as returned by getUsed()) into dst at its current position.
+     *
+     * @param message The message to be framed
+     * @param dst     The buffer to write the frame to
+     * @throws BufferOverflowException if dst does not have enough space remaining
+     */
+    public static void encode(DNSMessage message, ByteBuffer dst) {
+        int length = message.getPosition();
+        if (dst.remaining() < PREFIX_LENGTH + length) throw new BufferOverflowException();
+        dst.putShort((short) length);
+        message.writeTo(dst);
+    }
+
+    /**
+     * Writes the length prefix and the message to the channel with one gathering write, straight from the message's
+     * buffer. As for DNSMessage.writeTo(), writing stops early if a non-blocking channel does not accept any more
+     * bytes.
+     *
+     * @param message The message to be framed
+     * @param channel The channel to write the frame to, typically a SocketChannel
+     * @return The number of bytes written, PREFIX_LENGTH plus the length of the message if the frame was written whole
+     * @throws IOException if the channel fails
+     */
+    public long write(DNSMessage message, GatheringByteChannel channel) throws IOException {
+        ByteBuffer body = message.asByteBuffer();
+        prefix.clear();
+        prefix.putShort((short) body.remaining());
+        prefix.flip();
+        frame[0] = prefix;
+        frame[1] = body;
+        long total = 0;
+        while (body.hasRemaining()) {
+            long written = channel.write(frame);
+            if (written == 0) break;
+            total += written;
+        }
+        frame[1] = null;
+        return total;
+    }
+
+    /**
+     * Reads whatever the channel has available into the codec's buffer. Messages previously returned by next() are
+     * no longer valid afterwards.
+     *
+     * @param channel The channel to read from, typically a SocketChannel
+     * @return The number of bytes read, possibly 0 for a non-blocking channel, or -1 at the end of the stream
+     * @throws IOException if the channel fails
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        makeRoom(1);
+        return channel.read(in);
+    }
+
+    /**
+     * Appends the remaining bytes of a chunk of the stream, as received by some other means, to the codec's buffer.
+     * Messages previously returned by next() are no longer valid afterwards.
+     *
+     * @param chunk The bytes received; its position is advanced to its limit
+     */
+    public void feed(ByteBuffer chunk) {
+        makeRoom(chunk.remaining());
+        in.put(chunk);
+    }
+
+    /**
+     * Returns the next complete message received, if any.
+     *
+     * @return The next message, wrapping the codec's buffer, or null if no complete message has been received yet
+     * @throws IllegalArgumentException if the length prefix is too short for a message header
+     */
+    public DNSMessage next() {
+        int length = nextLength();
+        if (length < 0) return null;
+        DNSMessage message = new DNSMessage(frame(length));
+        start += PREFIX_LENGTH + length;
+        return message;
+    }
+
+    /**
+     * Rewraps the given message around the next complete message received, if any, as next() does.
+     *
+     * @param message The message to be rewrapped, e.g. one taken from a DNSMessagePool
+     * @return true if the message was rewrapped, false if no complete message has been received yet
+     * @throws IllegalArgumentException if the length prefix is too short for a message header
+     */
+    public boolean next(DNSMessage message) {
+        int length = nextLength();
+        if (length < 0) return false;
+        message.rewrap(frame(length));
+        start += PREFIX_LENGTH + length;
+        return true;
+    }
+
+    /**
+     * @return The number of bytes received but not yet returned as a message: 0 at a frame boundary.
+     */
+    public int buffered() {
+        return in.position() - start;
+    }
+
+    /**
+     * Forgets everything received, e.g. to reuse the codec for a new connection.
+     */
+    public void clear() {
+        in.clear();
+        start = 0;
+    }
+
+    /**
+     * @return The length of the next message if it has been received whole, -1 otherwise.
+     */
+    private int nextLength() {
+        if (buffered() < PREFIX_LENGTH) return -1;
+        int length = in.getShort(start) & 0xFFFF;
+        if (length < DNSPeek.HEADER_LENGTH)
+            throw new IllegalArgumentException("Frame length " + length + " is too short for a DNS message");
+        return buffered() < PREFIX_LENGTH + length ? -1 : length;
+    }
+
+    private ByteBuffer frame(int length) {
+        ByteBuffer view = in.duplicate();
+        view.limit(start + PREFIX_LENGTH + length);
+        view.position(start + PREFIX_LENGTH);
+        return view;
+    }
+
+    /**
+     * Moves the bytes not yet returned to the front of the buffer, and grows it if it still can't take the given
+     * number of bytes, or hold the whole of the message being received.
+     */
+    private void makeRoom(int needed) {
+        if (start > 0) {
+            in.limit(in.position());
+            in.position(start);
+            in.compact();
+            start = 0;
+        }
+        int frameLength = buffered() >= PREFIX_LENGTH ? PREFIX_LENGTH + (in.getShort(0) & 0xFFFF) : 0;
+        int capacity = Math.max(in.position() + needed, frameLength);
+        if (capacity > in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, 2 * in.capacity()));
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+    }
+}
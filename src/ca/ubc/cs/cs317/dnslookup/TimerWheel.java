@@ -0,0 +1,119 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/**
+ * A hashed timing wheel: timeouts are kept in a ring of slots, one per tick, so that scheduling, cancelling and
+ * expiring a timeout take constant time however many are pending. A timeout due more than one revolution ahead waits
+ * in its slot for the right round. Timeouts fire at most one tick late, which is fine for retransmission timers.
+ *
+ * Times are in whatever unit the owner of the wheel chooses, such as System.nanoTime() for retransmission timers, or
+ * System.currentTimeMillis() for record expiry, as long as the tick length is in the same unit.
+ *
+ * Each slot is an intrusive doubly linked list of Timeout objects, so nothing is allocated once they have been
+ * created. The wheel is not thread-safe: it is meant to be driven by a single event loop, or used under a lock.
+ */
+final class TimerWheel {
+    /**
+     * Something that can be scheduled on the wheel. An object can be scheduled again once it has expired or been
+     * cancelled, or rescheduled while pending.
+     */
+    abstract static class Timeout {
+        private long tick;
+        private Timeout prev;
+        private Timeout next;
+        private boolean scheduled;
+
+        /**
+         * Called by advance() once the timeout's deadline has passed. It may schedule the timeout again, but must not
+         * cancel other timeouts.
+         */
+        abstract void expired();
+
+        boolean isScheduled() {
+            return scheduled;
+        }
+    }
+
+    private final long tickLength;
+    private final long origin; // Times can be negative, as System.nanoTime() may be, so ticks are counted from here
+    private final Timeout[] slots;
+    private final int mask;
+    private long currentTick; // the first tick that has not been processed yet
+    private int size;
+
+    /**
+     * @param tickLength The length of a tick
+     * @param slotCount  The number of slots, a power of 2
+     * @param now        The current time
+     */
+    TimerWheel(long tickLength, int slotCount, long now) {
+        if (Integer.bitCount(slotCount) != 1)
+            throw new IllegalArgumentException("Slot count must be a power of 2");
+        this.tickLength = tickLength;
+        this.slots = new Timeout[slotCount];
+        this.mask = slotCount - 1;
+        this.origin = now;
+    }
+
+    /**
+     * Schedules a timeout, cancelling it first if it was already pending.
+     *
+     * @param timeout  The timeout to be scheduled
+     * @param deadline The time after which it expires
+     */
+    void schedule(Timeout timeout, long deadline) {
+        if (timeout.scheduled) cancel(timeout);
+        // Round up, so that a timeout never fires before its deadline
+        timeout.tick = Math.max(currentTick, (deadline - origin + tickLength - 1) / tickLength);
+        int slot = (int) (timeout.tick & mask);
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        slots[slot] = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    void cancel(Timeout timeout) {
+        if (!timeout.scheduled) return;
+        if (timeout.prev != null) timeout.prev.next = timeout.next;
+        else slots[(int) (timeout.tick & mask)] = timeout.next;
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    /**
+     * Expires every timeout whose deadline has passed.
+     *
+     * @param now The current time
+     */
+    void advance(long now) {
+        long nowTick = (now - origin) / tickLength;
+        // After a long pause, one revolution visits every slot
+        long end = Math.min(nowTick, currentTick + mask);
+        for (long tick = currentTick; tick <= end && size > 0; tick++) {
+            Timeout timeout = slots[(int) (tick & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.tick <= nowTick) {
+                    cancel(timeout);
+                    timeout.expired();
+                }
+                timeout = next;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick + 1);
+    }
+
+    /**
+     * @return The number of pending timeouts.
+     */
+    int size() {
+        return size;
+    }
+
+    long getTickLength() {
+        return tickLength;
+    }
+}
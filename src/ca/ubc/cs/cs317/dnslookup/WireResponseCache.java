@@ -0,0 +1,212 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache of complete responses, kept in wire format and keyed by the QuestionKey of their question, so that queries
+ * that differ only in the case of their names hit the same response. A hit is served by copying the stored bytes and
+ * patching them: the ID (and RD flag) of the query at offset 0, the query's question name over the stored one (so a
+ * client that randomizes the case of its names gets its own case back), and every TTL field, which is rewritten from
+ * the time the response was stored. Nothing is decoded or re-encoded, so serving a hit costs a copy and a few writes.
+ *
+ * Only successful responses with answers are cached, until their shortest TTL runs out. An OPT record at the end of
+ * the response is dropped, since it describes the upstream server, not this one. When the cache is full, a few
+ * entries are sampled and the one closest to expiring is evicted (see SampledEviction), which costs far less than
+ * keeping an exact order.
+ */
+public class WireResponseCache {
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    private final int capacity;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<QuestionKey, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * A stored response and where its TTLs are. Entries are never modified once stored.
+     */
+    private static final class Entry {
+        final byte[] wire;
+        final int questionEnd; // offset just past the first question's name
+        final int[] ttlOffsets;
+        final int[] ttls;
+        final long storedAt;
+        final long expiresAt;
+
+        Entry(byte[] wire, int questionEnd, int[] ttlOffsets, int[] ttls, long storedAt, long expiresAt) {
+            this.wire = wire;
+            this.questionEnd = questionEnd;
+            this.ttlOffsets = ttlOffsets;
+            this.ttls = ttls;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public WireResponseCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of responses in the cache
+     */
+    public WireResponseCache(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    /**
+     * @param capacity The maximum number of responses in the cache
+     * @param clock    The current time, in milliseconds
+     */
+    WireResponseCache(int capacity, LongSupplier clock) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    /**
+     * Stores a response, replacing any stored for the same question.
+     *
+     * @param response The response, as received from upstream or built locally
+     * @return true if the response was cached, false if it can't be (it is truncated, unsuccessful, has no answer
+     * or a TTL of 0)
+     */
+    public boolean put(DNSMessage response) {
+        if (!response.getQR() || response.getTC() || response.getRcode() != 0 || response.getQDCount() != 1
+                || response.getANCount() == 0)
+            return false;
+        int length = response.getLength();
+        int records = response.getANCount() + response.getNSCount() + response.getARCount();
+        boolean dropOPT = false;
+        if (response.getARCount() > 0) {
+            RecordSlice last = response.getRecordSlice(DNSSection.ADDITIONAL, response.getARCount() - 1);
+            if (last.getTypeCode() == RecordType.OPT.getCode() && last.getEnd() == length) {
+                dropOPT = true;
+                length = last.getOffset();
+                records--;
+            }
+        }
+        int[] ttlOffsets = new int[records];
+        int[] ttls = new int[records];
+        int n = 0;
+        int minTTL = Integer.MAX_VALUE;
+        for (DNSSection section : new DNSSection[]{DNSSection.ANSWER, DNSSection.AUTHORITY, DNSSection.ADDITIONAL}) {
+            for (int i = 0; i < response.getCount(section) && n < records; i++) {
+                RecordSlice slice = response.getRecordSlice(section, i);
+                if (slice.getTypeCode() == RecordType.OPT.getCode()) return false; // an OPT record in the middle
+                ttlOffsets[n] = slice.getRDataOffset() - 6;
+                // TTLs with the top bit set are taken as 0 (RFC 2181, section 8)
+                ttls[n] = Math.max(slice.getTTL(), 0);
+                minTTL = Math.min(minTTL, ttls[n]);
+                n++;
+            }
+        }
+        if (minTTL == 0) return false;
+
+        byte[] wire = new byte[length];
+        response.asWholeBuffer().get(wire);
+        if (dropOPT) {
+            ByteBuffer header = ByteBuffer.wrap(wire);
+            header.putShort(DNSSection.ADDITIONAL.getCountOffset(), (short) (response.getARCount() - 1));
+        }
+        QuestionKey key = QuestionKey.read(response.asWholeBuffer());
+        long now = clock.getAsLong();
+        Entry entry = new Entry(wire, DNSName.end(ByteBuffer.wrap(wire), DNSPeek.HEADER_LENGTH), ttlOffsets, ttls,
+                now, now + minTTL * 1000L);
+        if (entries.size() >= capacity && !entries.containsKey(key))
+            SampledEviction.evict(entries, stored -> stored.expiresAt, now);
+        entries.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Writes the cached response to a query at dst's position, patched for that query, and advances dst's position
+     * past it.
+     *
+     * @param query The query, from its position to its limit
+     * @param dst   The buffer to write the response to
+     * @return The length of the response, or -1 if no response is cached for the query's question, or the query is
+     * malformed
+     * @throws BufferOverflowException if the response does not fit in dst
+     */
+    public int get(ByteBuffer query, ByteBuffer dst) {
+        long now = clock.getAsLong();
+        Entry entry = lookup(query, now);
+        if (entry == null) return -1;
+        if (dst.remaining() < entry.wire.length) throw new BufferOverflowException();
+        write(entry, query, dst, now);
+        return entry.wire.length;
+    }
+
+    /**
+     * Returns the cached response to a query, patched for that query, as a new message.
+     *
+     * @param query The query
+     * @return The response, or null if no response is cached for the query's question
+     */
+    public DNSMessage get(DNSMessage query) {
+        ByteBuffer wire = query.asWholeBuffer();
+        long now = clock.getAsLong();
+        Entry entry = lookup(wire, now);
+        if (entry == null) return null;
+        // The message keeps the buffer, which is only as large as the response
+        ByteBuffer response = ByteBuffer.allocate(entry.wire.length);
+        write(entry, wire, response, now);
+        return new DNSMessage(response.array(), entry.wire.length);
+    }
+
+    /**
+     * @return The entry for the query's question if it has not expired, or null if there is none or the query is
+     * malformed
+     */
+    private Entry lookup(ByteBuffer query, long now) {
+        if (!DNSPeek.hasHeader(query) || DNSPeek.peekCount(query, DNSSection.QUESTION) != 1) return null;
+        QuestionKey key;
+        try {
+            key = QuestionKey.read(query);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (now >= entry.expiresAt) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Writes an entry's response at dst's position, which has room for it, patched for the query.
+     */
+    private static void write(Entry entry, ByteBuffer query, ByteBuffer dst, long now) {
+        int base = dst.position();
+        dst.put(entry.wire);
+        dst.putShort(base, (short) DNSPeek.peekID(query));
+        // RD is copied from the query (RFC 1035, section 4.1.1)
+        int rd = DNSPeek.peekFlags(query) & 0x0100;
+        dst.putShort(base + 2, (short) ((dst.getShort(base + 2) & ~0x0100) | rd));
+        // The names are equal ignoring case, so they have the same length unless the query's is compressed
+        int nameLength = entry.questionEnd - DNSPeek.HEADER_LENGTH;
+        int queryName = query.position() + DNSPeek.HEADER_LENGTH;
+        if (DNSName.end(query, queryName) - queryName == nameLength)
+            dst.put(base + DNSPeek.HEADER_LENGTH, query, queryName, nameLength);
+        int elapsed = (int) ((now - entry.storedAt) / 1000);
+        for (int i = 0; i < entry.ttlOffsets.length; i++)
+            dst.putInt(base + entry.ttlOffsets[i], entry.ttls[i] - elapsed);
+    }
+
+    public void remove(DNSQuestion question) {
+        entries.remove(QuestionKey.of(question));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
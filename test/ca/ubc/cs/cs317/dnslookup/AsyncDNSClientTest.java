@@ -0,0 +1,188 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncDNSClientTest {
+    private DatagramChannel server;
+    private Thread serverThread;
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A stub server on the loopback interface. It answers every A query with 10.0.0.1, except for a few names:
+     * "never.test" is never answered, "drop.test" is answered from the second attempt on, and "spoof.test" gets a
+     * response to another question before the right one.
+     */
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = DatagramChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        serverThread = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+            try {
+                while (true) {
+                    buffer.clear();
+                    SocketAddress client = server.receive(buffer);
+                    buffer.flip();
+                    DNSMessage query = new DNSMessage(buffer);
+                    DNSQuestion question = query.getQuestion(0);
+                    String name = question.getHostName();
+                    if (name.equals("never.test") || name.equals("drop.test") && seen.add(name)) continue;
+                    if (name.equals("spoof.test"))
+                        server.send(response(query.getID(), new DNSQuestion("other.test", RecordType.A, RecordClass.IN)), client);
+                    server.send(response(query.getID(), question), client);
+                }
+            } catch (IOException e) {
+                // The server was closed
+            }
+        });
+        serverThread.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws Exception {
+        server.close();
+        serverThread.join();
+    }
+
+    private static ByteBuffer response(int id, DNSQuestion question) throws IOException {
+        DNSMessage response = new DNSMessage((short) id);
+        response.setQR(true);
+        response.addQuestion(question);
+        response.addResourceRecord(DNSSection.ANSWER,
+                new ResourceRecord(question, 60, InetAddress.getByAddress(new byte[]{10, 0, 0, 1})));
+        return response.asByteBuffer();
+    }
+
+    private static DNSQuestion a(String name) {
+        return new DNSQuestion(name, RecordType.A, RecordClass.IN);
+    }
+
+    private AsyncDNSClient client(long timeoutMillis) throws IOException {
+        return new AsyncDNSClient((InetSocketAddress) server.getLocalAddress(), 2, timeoutMillis, 2);
+    }
+
+    @Test
+    public void testManyQueriesInFlight() throws Exception {
+        try (AsyncDNSClient client = client(1000)) {
+            List<CompletableFuture<DNSMessage>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++)
+                futures.add(client.query(a("host" + i + ".test")));
+            for (int i = 0; i < 500; i++) {
+                DNSMessage response = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertTrue(response.getQR());
+                assertEquals("host" + i + ".test", response.getQuestion(0).getHostName());
+                assertEquals("10.0.0.1", response.answers().getRR(0).getTextResult());
+            }
+        }
+    }
+
+    @Test
+    public void testRetryAndTimeout() throws Exception {
+        try (AsyncDNSClient client = client(100)) {
+            CompletableFuture<DNSMessage> dropped = client.query(a("drop.test"));
+            CompletableFuture<DNSMessage> never = client.query(a("never.test"));
+            assertEquals(1, dropped.get(5, TimeUnit.SECONDS).getANCount());
+            ExecutionException e = assertThrows(ExecutionException.class, () -> never.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testResponseToAnotherQuestionIsIgnored() throws Exception {
+        try (AsyncDNSClient client = client(1000)) {
+            DNSMessage response = client.query(a("spoof.test")).get(5, TimeUnit.SECONDS);
+            assertEquals("spoof.test", response.getQuestion(0).getHostName());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        AsyncDNSClient client = client(10000);
+        CompletableFuture<DNSMessage> never = client.query(a("never.test"));
+        client.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> never.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ClosedChannelException);
+        assertTrue(client.query(a("www.test")).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCloseFromCallback() throws Exception {
+        AsyncDNSClient client = client(10000);
+        CompletableFuture<DNSMessage> never = client.query(a("never.test"));
+        CompletableFuture<Void> closedInCallback = client.query(a("www.test")).thenAccept(response -> {
+            try {
+                client.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        closedInCallback.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> never.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ClosedChannelException);
+    }
+
+    @Test
+    public void testBulkLookup() throws Exception {
+        assertNull(BulkLookup.parse("   # nothing here"));
+        assertEquals(new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN), BulkLookup.parse("cs.ubc.ca  mx # mail"));
+        assertEquals(a("ubc.ca"), BulkLookup.parse("ubc.ca"));
+        List<String> errors = new ArrayList<>();
+        assertNull(BulkLookup.parse("ubc.ca bogus", errors::add));
+        assertEquals(a("ubc.ca"), BulkLookup.parse("ubc.ca a", errors::add));
+        assertNull(BulkLookup.parse("a..b", errors::add));
+        assertNull(BulkLookup.parse("x".repeat(64) + ".ca", errors::add));
+        assertEquals(3, errors.size());
+        assertTrue(errors.get(0).contains("ubc.ca bogus"));
+
+        List<DNSQuestion> questions = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            questions.add(a("bulk" + i + ".test"));
+        questions.add(a("never.test"));
+        // A question that can't be sent fails on its own, without holding a permit
+        for (int i = 0; i < 100; i++)
+            questions.add(a("bad..name" + i));
+        Set<String> answered = ConcurrentHashMap.newKeySet();
+        List<BulkLookup.Result> failed = new ArrayList<>();
+        try (AsyncDNSClient client = client(100)) {
+            new BulkLookup(client, 64).run(questions, result -> {
+                if (result.getResponse() != null) {
+                    answered.add(result.getResponse().getQuestion(0).getHostName());
+                } else {
+                    synchronized (failed) {
+                        failed.add(result);
+                    }
+                }
+            });
+        }
+        assertEquals(2000, answered.size());
+        assertEquals(101, failed.size());
+        failed.sort(Comparator.comparing(result -> result.getQuestion().getHostName()));
+        assertTrue(failed.get(0).getError() instanceof IllegalArgumentException);
+        BulkLookup.Result never = failed.get(100);
+        assertEquals(a("never.test"), never.getQuestion());
+        assertTrue(never.getError() instanceof TimeoutException);
+        assertTrue(never.toString().startsWith("never.test (A) ERROR"));
+    }
+}
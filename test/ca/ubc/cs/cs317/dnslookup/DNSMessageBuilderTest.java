@@ -0,0 +1,191 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DNSMessageBuilderTest {
+    private static final DNSQuestion QUESTION = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+
+    private static ResourceRecord a(String name, int last) throws UnknownHostException {
+        return new ResourceRecord(new DNSQuestion(name, RecordType.A, RecordClass.IN), 300,
+                InetAddress.getByAddress(new byte[]{(byte) 142, 103, 6, (byte) last}));
+    }
+
+    private static ResourceRecord ns(String name, String target) {
+        return new ResourceRecord(new DNSQuestion(name, RecordType.NS, RecordClass.IN), 300, target);
+    }
+
+    @Test
+    public void testSectionsAndCounts() throws UnknownHostException {
+        ResourceRecord answer = a("www.cs.ubc.ca", 1);
+        ResourceRecord ns1 = ns("cs.ubc.ca", "ns1.cs.ubc.ca");
+        ResourceRecord ns2 = ns("cs.ubc.ca", "ns2.cs.ubc.ca");
+        ResourceRecord glue = a("ns1.cs.ubc.ca", 53);
+        ResourceRecord mx = new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN), 300,
+                "mail.cs.ubc.ca");
+
+        DNSMessage message = new DNSMessageBuilder(77)
+                .addAdditional(glue)
+                .addAuthority(ns1)
+                .addAnswer(answer)
+                .addAuthority(ns2)
+                .addAuthority(ns1)
+                .addAdditional(mx)
+                .addQuestion(QUESTION)
+                .build();
+
+        assertEquals(77, message.getID());
+        assertEquals(1, message.getQDCount());
+        assertEquals(1, message.getANCount());
+        assertEquals(2, message.getNSCount());
+        assertEquals(2, message.getARCount());
+
+        byte[] content = message.getUsed();
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals(QUESTION, reply.getQuestion(0));
+        assertEquals(answer, reply.answers().getRR(0));
+        assertEquals(ns1, reply.authority().getRR(0));
+        assertEquals(ns2, reply.authority().getRR(1));
+        assertEquals(glue, reply.additional().getRR(0));
+        assertEquals(mx, reply.additional().getRR(1));
+        // ns2 + pointer to cs.ubc.ca, which was written in the question section
+        assertEquals(6, reply.authority().get(1).getRDataLength());
+        // preference + mail + pointer
+        assertEquals(2 + 5 + 2, reply.additional().get(1).getRDataLength());
+        assertEquals(content.length, reply.additional().get(1).getEnd());
+    }
+
+    @Test
+    public void testSectionOrderIsEnforced() throws UnknownHostException {
+        DNSMessage message = new DNSMessage((short) 1);
+        message.addQuestion(QUESTION);
+        message.addResourceRecord(DNSSection.AUTHORITY, ns("cs.ubc.ca", "ns1.cs.ubc.ca"));
+        assertThrows(IllegalStateException.class, () -> message.addResourceRecord(DNSSection.ANSWER, a("www.cs.ubc.ca", 1)));
+        assertThrows(IllegalStateException.class, () -> message.addQuestion(QUESTION));
+        message.addResourceRecord(DNSSection.ADDITIONAL, a("ns1.cs.ubc.ca", 53));
+        assertEquals(0, message.getANCount());
+        assertEquals(1, message.getNSCount());
+        assertEquals(1, message.getARCount());
+    }
+
+    @Test
+    public void testRecordThatDoesNotFitIsRolledBack() throws UnknownHostException {
+        DNSMessage message = new DNSMessage((short) 1);
+        message.addQuestion(QUESTION);
+        int used = message.getUsed().length;
+        message.setMaxLength(used + 20);
+        // An A record for a new name needs 12 bytes of name, 10 of header and 4 of address
+        assertFalse(message.tryAddResourceRecord(DNSSection.ANSWER, a("ftp.ece.ubc.ca", 1)));
+        assertEquals(0, message.getANCount());
+        assertEquals(used, message.getUsed().length);
+        // The names of the dropped record must not be used for compression: www.cs.ubc.ca is a 2 byte pointer
+        assertTrue(message.tryAddResourceRecord(DNSSection.ANSWER, a("www.cs.ubc.ca", 1)));
+        assertEquals(1, message.getANCount());
+        assertEquals(used + 16, message.getUsed().length);
+
+        DNSMessage query = new DNSMessage((short) 2);
+        query.setMaxLength(used - 1);
+        assertThrows(BufferOverflowException.class, () -> query.addQuestion(QUESTION));
+        assertEquals(0, query.getQDCount());
+        assertEquals(DNSPeek.HEADER_LENGTH, query.getUsed().length);
+    }
+
+    @Test
+    public void testTruncation() throws UnknownHostException {
+        DNSMessageBuilder builder = new DNSMessageBuilder(5).addQuestion(QUESTION);
+        for (int i = 0; i < 40; i++)
+            builder.addAnswer(a("www.cs.ubc.ca", i));
+        builder.addAuthority(ns("cs.ubc.ca", "ns1.cs.ubc.ca"));
+
+        DNSMessage message = builder.build();
+        assertTrue(message.getTC());
+        // 31 + 16 * 30 = 511
+        assertEquals(30, message.getANCount());
+        assertEquals(0, message.getNSCount());
+        byte[] content = message.getUsed();
+        assertTrue(content.length <= DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals(content.length, reply.answers().get(29).getEnd());
+
+        message = builder.setMaxLength(200).build();
+        assertTrue(message.getTC());
+        assertEquals(10, message.getANCount());
+    }
+
+    @Test
+    public void testAdditionalRecordsAreDroppedWithoutTruncation() throws UnknownHostException {
+        DNSMessageBuilder builder = new DNSMessageBuilder(5).addQuestion(QUESTION)
+                .addAnswer(a("www.cs.ubc.ca", 1))
+                .addAuthority(ns("cs.ubc.ca", "ns1.cs.ubc.ca"));
+        for (int i = 0; i < 40; i++)
+            builder.addAdditional(a("ns" + i + ".cs.ubc.ca", i));
+
+        DNSMessage message = builder.build();
+        assertFalse(message.getTC());
+        assertEquals(1, message.getANCount());
+        assertEquals(1, message.getNSCount());
+        assertTrue(message.getARCount() > 0 && message.getARCount() < 40);
+        byte[] content = message.getUsed();
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals(content.length, reply.additional().get(message.getARCount() - 1).getEnd());
+    }
+
+    @Test
+    public void testMinimalResponses() throws UnknownHostException {
+        ResourceRecord ns1 = ns("cs.ubc.ca", "ns1.cs.ubc.ca");
+        ResourceRecord glue = a("ns1.cs.ubc.ca", 53);
+        ResourceRecord mx = new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN), 300,
+                "mail.cs.ubc.ca");
+        DNSMessageBuilder builder = new DNSMessageBuilder(5).setMinimalResponses(true).addQuestion(QUESTION)
+                .addAuthority(ns1).addAdditional(glue).addAdditional(mx);
+
+        // A referral keeps its delegation and glue, but not the rest of the additional section
+        DNSMessage message = builder.build();
+        assertEquals(0, message.getANCount());
+        assertEquals(1, message.getNSCount());
+        assertEquals(1, message.getARCount());
+        assertEquals(glue, message.additional().getRR(0));
+
+        // An answer is all a client needs
+        message = builder.addAnswer(a("www.cs.ubc.ca", 1)).build();
+        assertFalse(message.getTC());
+        assertEquals(1, message.getANCount());
+        assertEquals(0, message.getNSCount());
+        assertEquals(0, message.getARCount());
+    }
+
+    @Test
+    public void testEDNSBudget() throws UnknownHostException {
+        DNSMessageBuilder builder = new DNSMessageBuilder(5).addQuestion(QUESTION).setOPTRecord(new OPTRecord(4096));
+        for (int i = 0; i < 100; i++)
+            builder.addAnswer(a("www.cs.ubc.ca", i));
+
+        // Room is kept for the OPT record when the answers are truncated: (512 - 11 - 31) / 16 answers fit
+        DNSMessage message = builder.build();
+        assertTrue(message.getTC());
+        assertEquals(29, message.getANCount());
+        assertEquals(1, message.getARCount());
+        assertEquals(4096, message.getOPTRecord().getPayloadSize());
+        assertTrue(message.getUsed().length <= DNSMessage.MAX_DNS_MESSAGE_LENGTH);
+
+        message = builder.setMaxLength(4096).build();
+        assertFalse(message.getTC());
+        assertEquals(100, message.getANCount());
+        assertEquals(31 + 100 * 16 + 11, message.getUsed().length);
+        assertNotNull(message.getOPTRecord());
+
+        // The budget must hold a header and the OPT record, whichever is set first
+        OPTRecord cookie = new OPTRecord(4096, 0, 0, false, List.of(new EDNSOption(10, new byte[8])));
+        assertThrows(IllegalArgumentException.class, () -> builder.setMaxLength(DNSPeek.HEADER_LENGTH + 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new DNSMessageBuilder(6).setMaxLength(DNSPeek.HEADER_LENGTH + 20).setOPTRecord(cookie));
+        assertEquals(DNSPeek.HEADER_LENGTH + 10,
+                builder.setOPTRecord(null).setMaxLength(DNSPeek.HEADER_LENGTH + 10).getMaxLength());
+    }
+}
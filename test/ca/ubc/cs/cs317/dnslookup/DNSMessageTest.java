@@ -2,6 +2,14 @@ package ca.ubc.cs.cs317.dnslookup;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class DNSMessageTest {
@@ -98,4 +106,450 @@ public class DNSMessageTest {
         ResourceRecord replyRR = reply.getRR();
         assertEquals(rr, replyRR);
     }
+    @Test
+    public void testCompressedName() {
+        DNSMessage request = new DNSMessage((short)23);
+        request.addName("norm.cs.ubc.ca");
+        request.addName("ns1.cs.ubc.ca");
+        request.addName("ubc.ca");
+        byte[] content = request.getUsed();
+        assertEquals(12 + 16 + 6 + 2, content.length);
+
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals("norm.cs.ubc.ca", reply.getName());
+        DNSName name = reply.getDNSName();
+        assertEquals("ns1.cs.ubc.ca", name.toString());
+        assertEquals(DNSName.of("NS1.CS.UBC.CA."), name);
+        assertEquals(DNSName.of("NS1.CS.UBC.CA.").hashCode(), name.hashCode());
+        assertEquals(4, name.labelCount());
+        assertEquals(DNSName.of("ubc.ca"), reply.getDNSName());
+        assertEquals(content.length, reply.getUsed().length);
+        assertEquals(DNSName.ROOT, DNSName.of("."));
+        assertEquals("", DNSName.ROOT.toString());
+    }
+    @Test
+    public void testForwardAndLoopingPointers() {
+        byte[] content = {
+                0, 23, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0,
+                3, 'w', 'w', 'w', (byte) 0xc0, 18, // www + pointer forward to offset 18
+                3, 'u', 'b', 'c', 2, 'c', 'a', 0,
+                (byte) 0xc0, 26                    // pointer to itself
+        };
+        DNSMessage message = new DNSMessage(content, content.length);
+        assertEquals(DNSName.of("ubc.ca"), message.getDNSName(18));
+        assertEquals(12, message.getPosition());
+        assertEquals("www.ubc.ca", message.getName());
+        assertEquals(18, message.getPosition());
+        message.setPosition(12);
+        message.skipName();
+        assertEquals(18, message.getPosition());
+        assertThrows(IllegalArgumentException.class, () -> message.getDNSName(26));
+    }
+    @Test
+    public void testResetAndRewrap() {
+        DNSMessage message = new DNSMessage((short)23);
+        message.setQR(true);
+        message.addQuestion(new DNSQuestion("norm.cs.ubc.ca", RecordType.A, RecordClass.IN));
+        byte[] first = message.getUsed();
+
+        message.reset(24);
+        assertEquals(24, message.getID());
+        assertFalse(message.getQR());
+        assertEquals(0, message.getQDCount());
+        message.addQuestion(new DNSQuestion("ns1.cs.ubc.ca", RecordType.AAAA, RecordClass.IN));
+        byte[] second = message.getUsed();
+
+        byte[] datagram = new byte[DNSMessage.MAX_DNS_MESSAGE_LENGTH];
+        System.arraycopy(first, 0, datagram, 0, first.length);
+        message.rewrap(datagram, 0, first.length);
+        assertEquals(23, message.getID());
+        assertEquals("norm.cs.ubc.ca", message.getQuestion().getHostName());
+
+        System.arraycopy(second, 0, datagram, 5, second.length);
+        message.rewrap(datagram, 5, second.length);
+        assertEquals(24, message.getID());
+        assertEquals(new DNSQuestion("ns1.cs.ubc.ca", RecordType.AAAA, RecordClass.IN), message.getQuestion());
+
+        DNSMessagePool pool = new DNSMessagePool(1);
+        pool.release(message);
+        assertSame(message, pool.acquire(7));
+        assertEquals(7, message.getID());
+        assertEquals(0, message.getQDCount());
+
+        // A message used with a larger limit, e.g. for EDNS or TCP, comes back with the default one
+        message.setMaxLength(4096);
+        pool.release(message);
+        assertSame(message, pool.acquire(8));
+        assertEquals(DNSMessage.MAX_DNS_MESSAGE_LENGTH, message.getMaxLength());
+        message.setMaxLength(DNSMessage.MAX_MESSAGE_LENGTH);
+        pool.release(message);
+        assertSame(message, pool.acquire(first, 0, first.length));
+        assertEquals(DNSMessage.MAX_DNS_MESSAGE_LENGTH, message.getMaxLength());
+    }
+    @Test
+    public void testDirectBuffersAndChannels() throws IOException {
+        DNSMessage request = new DNSMessage((short)23);
+        DNSQuestion question = new DNSQuestion("norm.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        request.addQuestion(question);
+        byte[] content = request.getUsed();
+
+        ByteBuffer view = request.asByteBuffer();
+        assertTrue(view.isReadOnly());
+        assertEquals(content.length, view.remaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put((byte) 99);
+        request.writeTo(direct);
+        assertEquals(1 + content.length, direct.position());
+        direct.flip();
+        direct.get();
+        DNSMessage reply = new DNSMessage(direct);
+        assertEquals(23, reply.getID());
+        assertEquals(question, reply.getQuestion());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, request.writeTo(Channels.newChannel(out)));
+        assertArrayEquals(content, out.toByteArray());
+    }
+    @Test
+    public void testRecordCodes() {
+        for (RecordType type : RecordType.values())
+            if (type != RecordType.OTHER) assertSame(type, RecordType.getByCode(type.getCode()));
+        for (RecordClass recordClass : RecordClass.values())
+            if (recordClass != RecordClass.OTHER) assertSame(recordClass, RecordClass.getByCode(recordClass.getCode()));
+        assertSame(RecordType.OTHER, RecordType.getByCode(0));
+        assertSame(RecordType.OTHER, RecordType.getByCode(65280));
+        assertSame(RecordClass.OTHER, RecordClass.getByCode(-1));
+
+        DNSMessage request = new DNSMessage((short)23);
+        DNSQuestion question = new DNSQuestion("norm.cs.ubc.ca", 65280, 65281);
+        request.addQuestion(question);
+        byte[] content = request.getUsed();
+
+        DNSQuestion replyQuestion = new DNSMessage(content, content.length).getQuestion();
+        assertEquals(question, replyQuestion);
+        assertEquals(RecordType.OTHER, replyQuestion.getRecordType());
+        assertEquals(65280, replyQuestion.getTypeCode());
+        assertEquals(65281, replyQuestion.getClassCode());
+        assertNotEquals(new DNSQuestion("norm.cs.ubc.ca", 65281, 65281), replyQuestion);
+        assertEquals("norm.cs.ubc.ca (TYPE65280)", replyQuestion.toString());
+    }
+    @Test
+    public void testRecordSlices() {
+        DNSMessage request = new DNSMessage((short)23);
+        DNSQuestion ns = new DNSQuestion("cs.ubc.ca", RecordType.NS, RecordClass.IN);
+        DNSQuestion txt = new DNSQuestion("cs.ubc.ca", RecordType.TXT, RecordClass.IN);
+        DNSQuestion unknown = new DNSQuestion("cs.ubc.ca", 65280, 1);
+        ResourceRecord nsRR = new ResourceRecord(ns, 3600, "ns1.cs.ubc.ca");
+        ResourceRecord txtRR = new ResourceRecord(txt, 3600, new byte[]{5, 'h', 'e', 'l', 'l', 'o'});
+        ResourceRecord unknownRR = new ResourceRecord(unknown, 3600, new byte[]{(byte) 0xde, (byte) 0xad});
+        request.addResourceRecord(nsRR);
+        request.addResourceRecord(txtRR);
+        request.addResourceRecord(unknownRR);
+        byte[] content = request.getUsed();
+
+        DNSMessage reply = new DNSMessage(content, content.length);
+        RecordSlice first = reply.getRecordSlice();
+        assertEquals(RecordType.NS, first.getRecordType());
+        assertEquals(3600, first.getTTL());
+        assertEquals(6, first.getRDataLength()); // ns1 + pointer to cs.ubc.ca
+        reply.skipRR();
+        RecordSlice third = reply.getRecordSlice();
+        assertEquals(content.length, reply.getPosition());
+        assertEquals(65280, third.getTypeCode());
+        assertEquals(DNSName.of("cs.ubc.ca"), third.getName());
+        assertEquals(unknownRR, third.toResourceRecord());
+        assertEquals("dead", third.toResourceRecord().getTextResult());
+        assertEquals(nsRR, first.toResourceRecord());
+
+        reply.setPosition(first.getEnd());
+        ResourceRecord decodedTxt = reply.getRR();
+        assertEquals(txtRR, decodedTxt);
+        assertArrayEquals(txtRR.getRawData(), decodedTxt.getRawData());
+        // A record cut short anywhere, even in its name or fixed fields, is malformed
+        for (int length = 12; length < first.getEnd(); length++) {
+            ByteBuffer cut = ByteBuffer.wrap(content, 0, length);
+            assertThrows(IllegalArgumentException.class, () -> new RecordSlice(cut, 12));
+            assertThrows(IllegalArgumentException.class, () -> RecordSlice.end(cut, 12));
+        }
+    }
+    @Test
+    public void testSectionIndex() throws UnknownHostException {
+        DNSMessage response = new DNSMessage((short)23);
+        DNSQuestion question = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        ResourceRecord cname = new ResourceRecord(new DNSQuestion("www.cs.ubc.ca", RecordType.CNAME, RecordClass.IN), 60, "norm.cs.ubc.ca");
+        ResourceRecord ns = new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.NS, RecordClass.IN), 60, "ns1.cs.ubc.ca");
+        ResourceRecord glue = new ResourceRecord(new DNSQuestion("ns1.cs.ubc.ca", RecordType.A, RecordClass.IN), 60,
+                InetAddress.getByAddress(new byte[]{(byte) 142, 103, 6, 6}));
+        response.addQuestion(question);
+        response.addResourceRecord(cname);
+        response.addResourceRecord(ns);
+        response.addResourceRecord(glue);
+        byte[] content = response.getUsed();
+        content[7] = 1;  // ANCount
+        content[9] = 1;  // NSCount
+        content[11] = 1; // ARCount
+
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals(glue, reply.additional().getRR(0));
+        assertEquals(12, reply.getPosition());
+        assertEquals(1, reply.answers().size());
+        assertEquals(cname, reply.answers().getRR(0));
+        assertEquals(ns, reply.authority().get(0).toResourceRecord());
+        assertEquals(List.of(question), reply.questions());
+        assertEquals(12, reply.getOffset(DNSSection.QUESTION, 0));
+        assertEquals(reply.answers().get(0).getEnd(), reply.getOffset(DNSSection.AUTHORITY, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> reply.additional().get(1));
+        assertTrue(reply.toString().contains("Answers [1]"));
+        assertEquals(12, reply.getPosition());
+    }
+    @Test
+    public void testPeek() {
+        DNSMessage query = new DNSMessage((short)0x1234);
+        query.setRD(true);
+        query.addQuestion(new DNSQuestion("Norm.CS.ubc.ca", RecordType.AAAA, RecordClass.IN));
+        DNSMessage response = new DNSMessage((short)0x1234);
+        response.setQR(true);
+        response.setRcode(3);
+        response.addQuestion(new DNSQuestion("norm.cs.ubc.ca", RecordType.AAAA, RecordClass.IN));
+
+        ByteBuffer q = ByteBuffer.allocate(100);
+        q.put((byte) 1);
+        query.writeTo(q);
+        q.flip();
+        q.get();
+        ByteBuffer r = response.asByteBuffer();
+
+        assertEquals(0x1234, DNSPeek.peekID(q));
+        assertFalse(DNSPeek.peekQR(q));
+        assertTrue(DNSPeek.peekQR(r));
+        assertEquals(3, DNSPeek.peekRcode(r));
+        assertEquals(0x0100, DNSPeek.peekFlags(q));
+        assertEquals(1, DNSPeek.peekCount(q, DNSSection.QUESTION));
+        assertEquals(DNSPeek.questionHash(q), DNSPeek.questionHash(r));
+        assertEquals(DNSPeek.questionHash(DNSName.of("norm.cs.ubc.ca"), 28, 1), DNSPeek.questionHash(r));
+        assertTrue(DNSPeek.sameQuestion(q, r));
+        assertEquals(1, q.position());
+
+        response.reset(0x1234);
+        response.addQuestion(new DNSQuestion("norm.cs.ubc.ca", RecordType.A, RecordClass.IN));
+        assertFalse(DNSPeek.sameQuestion(q, response.asByteBuffer()));
+        assertNotEquals(DNSPeek.questionHash(q), DNSPeek.questionHash(response.asByteBuffer()));
+
+        // A name of the longest length hashes as DNSName does
+        String longest = "a23456789.".repeat(25) + "abc";
+        response.reset(0x1234);
+        response.addQuestion(new DNSQuestion(longest, RecordType.A, RecordClass.IN));
+        assertEquals(DNSPeek.questionHash(DNSName.of(longest), 1, 1), DNSPeek.questionHash(response.asByteBuffer()));
+
+        // A question whose name runs on in one-letter labels to the end of the largest message
+        ByteBuffer crafted = ByteBuffer.allocate(DNSMessage.MAX_MESSAGE_LENGTH);
+        crafted.putShort(DNSSection.QUESTION.getCountOffset(), (short) 1).position(DNSPeek.HEADER_LENGTH);
+        while (crafted.remaining() > 5)
+            crafted.put((byte) 1).put((byte) 'a');
+        crafted.put((byte) 0).putShort((short) 1).putShort((short) 1).flip();
+        assertThrows(IllegalArgumentException.class, () -> DNSPeek.questionHash(crafted));
+        assertFalse(DNSPeek.sameQuestion(crafted, crafted));
+        assertFalse(DNSPeek.sameQuestion(q, ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 5})));
+    }
+    @Test
+    public void testQuestionKeys() {
+        DNSQuestion lower = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        DNSQuestion mixed = new DNSQuestion("wWw.Cs.UBC.ca.", RecordType.A, RecordClass.IN);
+        assertNotEquals(lower, mixed);
+        assertEquals(QuestionKey.of(lower), QuestionKey.of(mixed));
+        assertEquals(QuestionKey.of(lower).hashCode(), QuestionKey.of(mixed).hashCode());
+        assertEquals(lower, QuestionKey.of(mixed).toQuestion());
+        assertNotEquals(QuestionKey.of(lower), QuestionKey.of(new DNSQuestion("www.cs.ubc.ca", RecordType.AAAA, RecordClass.IN)));
+
+        DNSMessage query = new DNSMessage((short) 1);
+        query.addQuestion(mixed);
+        ByteBuffer q = ByteBuffer.allocate(100);
+        q.put((byte) 1);
+        query.writeTo(q);
+        q.flip();
+        q.get();
+        assertEquals(QuestionKey.of(lower), QuestionKey.read(q));
+        assertEquals(DNSPeek.questionHash(q), QuestionKey.read(q).hashCode());
+        assertEquals(1, q.position());
+        assertThrows(IllegalArgumentException.class, () -> QuestionKey.read(new DNSMessage((short) 2).asByteBuffer()));
+    }
+
+    @Test
+    public void testSOA() {
+        DNSMessage message = new DNSMessage((short) 9);
+        message.addQuestion(new DNSQuestion("x.cs.ubc.ca", RecordType.A, RecordClass.IN));
+        // An SOA record whose owner and both names in its RDATA point back to cs.ubc.ca in the question
+        ByteBuffer rr = ByteBuffer.allocate(100);
+        rr.putShort((short) 0xC00E).putShort((short) 6).putShort((short) 1).putInt(3600);
+        int lengthAt = rr.position();
+        rr.putShort((short) 0);
+        rr.put((byte) 3).put("ns1".getBytes()).putShort((short) 0xC00E);
+        rr.put((byte) 10).put("hostmaster".getBytes()).putShort((short) 0xC00E);
+        rr.putInt(0x80000001).putInt(3600).putInt(900).putInt(604800).putInt(300);
+        rr.putShort(lengthAt, (short) (rr.position() - lengthAt - 2));
+        rr.flip();
+        ByteBuffer wire = ByteBuffer.allocate(200);
+        message.writeTo(wire);
+        wire.putShort(DNSSection.AUTHORITY.getCountOffset(), (short) 1).put(rr).flip();
+        DNSMessage received = new DNSMessage(wire);
+
+        RecordSlice slice = received.authority().get(0);
+        SOARecord soa = SOARecord.from(slice);
+        assertEquals(DNSName.of("ns1.cs.ubc.ca"), soa.getMName());
+        assertEquals(DNSName.of("hostmaster.cs.ubc.ca"), soa.getRName());
+        assertEquals(0x80000001L, soa.getSerial());
+        assertEquals(300, soa.getMinimum());
+        assertEquals("ns1.cs.ubc.ca hostmaster.cs.ubc.ca 2147483649 3600 900 604800 300", soa.toString());
+
+        // The record keeps its RDATA uncompressed, so it can be added to another message
+        ResourceRecord record = slice.toResourceRecord();
+        assertEquals(soa, SOARecord.from(record));
+        assertEquals(soa.toString(), record.getTextResult());
+        DNSMessage copy = new DNSMessageBuilder(1).addAuthority(record).build();
+        assertEquals(soa, SOARecord.from(copy.authority().get(0)));
+        assertThrows(IllegalArgumentException.class, () -> SOARecord.from(
+                new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.SOA, RecordClass.IN), 1, new byte[]{0, 0})));
+        // A received message is as long as what was received, whatever has been decoded
+        assertEquals(wire.limit(), received.getLength());
+        assertEquals(message.getPosition(), message.getLength());
+    }
+
+    @Test
+    public void testMXPreference() {
+        DNSMessage message = new DNSMessage((short) 9);
+        DNSQuestion question = new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN);
+        message.addQuestion(question);
+        // An MX record with a preference of 10, whose exchange points back to cs.ubc.ca in the question
+        ByteBuffer rr = ByteBuffer.allocate(100);
+        rr.putShort((short) 0xC00C).putShort((short) 15).putShort((short) 1).putInt(3600);
+        rr.putShort((short) 9).putShort((short) 10).put((byte) 4).put("mail".getBytes()).putShort((short) 0xC00C);
+        rr.flip();
+        ByteBuffer wire = ByteBuffer.allocate(200);
+        message.writeTo(wire);
+        wire.putShort(DNSSection.ANSWER.getCountOffset(), (short) 1).put(rr).flip();
+        DNSMessage received = new DNSMessage(wire);
+
+        // The preference is kept, with the exchange uncompressed
+        ResourceRecord record = received.answers().getRR(0);
+        assertEquals("mail.cs.ubc.ca", record.getTextResult());
+        assertArrayEquals(ResourceRecord.mxRData(10, DNSName.of("mail.cs.ubc.ca")), record.getRawData());
+
+        // and served again as it was received, with the exchange compressed
+        DNSMessage copy = new DNSMessageBuilder(1).addQuestion(question).addAnswer(record).build();
+        RecordSlice slice = copy.answers().get(0);
+        assertEquals(9, slice.getRDataLength());
+        assertEquals(10, copy.asWholeBuffer().getShort(slice.getRDataOffset()));
+        assertEquals(record, slice.toResourceRecord());
+
+        // An MX record built from its exchange alone has a preference of 0, as before
+        ResourceRecord built = new ResourceRecord(question, 60, "mail.cs.ubc.ca");
+        assertEquals("mail.cs.ubc.ca", built.getTextResult());
+        assertArrayEquals(ResourceRecord.mxRData(0, DNSName.of("mail.cs.ubc.ca")), built.getRawData());
+        byte[] truncated = {0, 10, 4, 'm', 'a', 'i', 'l'};
+        assertEquals("000a046d61696c", new ResourceRecord(question, 60, truncated).getTextResult());
+    }
+
+    @Test
+    public void testCompressionIgnoresCase() {
+        DNSMessage request = new DNSMessage((short)23);
+        request.addName("www.cs.ubc.ca");
+        int end = request.getPosition();
+        request.addName("WWW.CS.UBC.CA.");
+        assertEquals(end + 2, request.getPosition());
+        request.addName(DNSName.of("Mail.CS.ubc.ca"));
+        assertEquals(end + 2 + 5 + 2, request.getPosition());
+        request.addName("");
+        assertEquals(end + 2 + 5 + 2 + 1, request.getPosition());
+        assertThrows(IllegalArgumentException.class, () -> request.addName("www..ca"));
+
+        byte[] content = request.getUsed();
+        DNSMessage reply = new DNSMessage(content, content.length);
+        assertEquals("www.cs.ubc.ca", reply.getName());
+        assertEquals("www.cs.ubc.ca", reply.getName());
+        assertEquals("Mail.cs.ubc.ca", reply.getName());
+        assertEquals(DNSName.ROOT, reply.getDNSName());
+    }
+    @Test
+    public void testEDNS() {
+        DNSMessage message = new DNSMessage((short)23);
+        message.addQuestion(new DNSQuestion("norm.cs.ubc.ca", RecordType.AAAA, RecordClass.IN));
+        OPTRecord opt = new OPTRecord(4096, 1, 0, true, List.of(new EDNSOption(EDNSOption.COOKIE,
+                new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+        message.addOPTRecord(opt);
+        message.setRcode(6);
+        assertEquals(1, message.getARCount());
+        assertThrows(IllegalStateException.class, () -> message.addQuestion(new DNSQuestion("cs.ubc.ca", RecordType.A, RecordClass.IN)));
+
+        byte[] content = message.getUsed();
+        // header, question, then OPT: root, type 41, class 4096, extended rcode 1, version 0, DO, 12 bytes of option
+        assertEquals(12 + 20 + opt.length(), content.length);
+        assertEquals(23, opt.length());
+        DNSMessage received = new DNSMessage(content, content.length);
+        assertEquals(opt, received.getOPTRecord());
+        assertEquals(4096, received.getOPTRecord().getPayloadSize());
+        assertTrue(received.getOPTRecord().getDnssecOK());
+        assertEquals(0x16, received.getExtendedRcode());
+        assertTrue(received.toString().contains("udp payload 4096, DO"));
+
+        assertNull(new DNSMessage((short)1).getOPTRecord());
+        assertEquals(OPTRecord.MIN_PAYLOAD_SIZE, new OPTRecord(100).getPayloadSize());
+    }
+    @Test
+    public void testGrowableBuffer() throws UnknownHostException {
+        DNSMessage message = new DNSMessage((short)23);
+        assertEquals(DNSMessage.MAX_DNS_MESSAGE_LENGTH, message.getMaxLength());
+        assertThrows(IllegalArgumentException.class, () -> message.setMaxLength(DNSMessage.MAX_MESSAGE_LENGTH + 1));
+        message.setMaxLength(4096);
+        DNSQuestion question = new DNSQuestion("norm.cs.ubc.ca", RecordType.AAAA, RecordClass.IN);
+        message.addQuestion(question);
+        int added = 0;
+        while (true) {
+            byte[] address = new byte[16];
+            address[15] = (byte) added;
+            if (!message.tryAddResourceRecord(DNSSection.ANSWER, new ResourceRecord(question, 300, InetAddress.getByAddress(address))))
+                break;
+            added++;
+        }
+        // Every answer is a pointer to the question's name, 10 bytes of header and 16 of address
+        assertEquals((4096 - 12 - 20) / 28, added);
+        assertEquals(added, message.getANCount());
+        assertEquals(12 + 20 + added * 28, message.getUsed().length);
+
+        byte[] content = message.getUsed();
+        DNSMessage received = new DNSMessage(content, content.length);
+        assertEquals(added, received.answers().size());
+        assertEquals(question.getHostName(), received.answers().get(added - 1).getHostName());
+
+        // A reset keeps the larger buffer, and the maximum length
+        message.reset(24);
+        assertEquals(4096, message.getMaxLength());
+        message.addQuestion(question);
+        assertEquals(32, message.getUsed().length);
+    }
+    @Test
+    public void testCompactRecords() throws UnknownHostException {
+        DNSQuestion a = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        DNSQuestion aaaa = new DNSQuestion("www.cs.ubc.ca", RecordType.AAAA, RecordClass.IN);
+        ResourceRecord v4 = new ResourceRecord(a, 300, 0x8E670601);
+        assertEquals(new ResourceRecord(a, 60, InetAddress.getByName("142.103.6.1")), v4);
+        assertEquals("142.103.6.1", v4.getTextResult());
+        assertEquals(InetAddress.getByName("142.103.6.1"), v4.getInetResult());
+
+        InetAddress address = InetAddress.getByName("2607:f8f0:610:4000::1");
+        ResourceRecord v6 = new ResourceRecord(aaaa, 300, 0x2607F8F006104000L, 1L);
+        assertEquals(new ResourceRecord(aaaa, 300, address), v6);
+        assertEquals(new ResourceRecord(aaaa, 300, address).hashCode(), v6.hashCode());
+        assertEquals(address.getHostAddress(), v6.getTextResult());
+        assertNotEquals(v4, v6);
+
+        ResourceRecord raw = new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.TXT, RecordClass.IN), 0,
+                new byte[]{2, 'h', 'i'});
+        assertEquals("026869", raw.getTextResult());
+        assertNull(raw.getInetResult());
+        assertTrue(raw.isExpired());
+        assertFalse(v4.isExpired());
+        raw.update(v4);
+        assertFalse(raw.isExpired());
+    }
 }
@@ -0,0 +1,110 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NegativeCacheTest {
+    private static final DNSQuestion SOA = new DNSQuestion("cs.ubc.ca", RecordType.SOA, RecordClass.IN);
+
+    private static DNSMessage response(DNSQuestion question, int rcode, int soaTTL, int minimum) {
+        SOARecord soa = new SOARecord(DNSName.of("ns1.cs.ubc.ca"), DNSName.of("hostmaster.cs.ubc.ca"), 2024010101,
+                3600, 900, 604800, minimum);
+        DNSMessage response = new DNSMessageBuilder(1).addQuestion(question)
+                .addAuthority(new ResourceRecord(SOA, soaTTL, soa.toRData())).build();
+        response.setQR(true);
+        response.setRcode(rcode);
+        // As received from upstream
+        return new DNSMessage(response.getUsed(), response.getPosition());
+    }
+
+    private static DNSMessage query(int id, String name, RecordType type) {
+        DNSMessage query = new DNSMessage((short) id);
+        query.setRD(true);
+        query.addQuestion(new DNSQuestion(name, type, RecordClass.IN));
+        return query;
+    }
+
+    @Test
+    public void testNameError() {
+        NegativeCache cache = new NegativeCache();
+        DNSQuestion typo = new DNSQuestion("wwww.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        assertTrue(cache.put(response(typo, NegativeCache.NAME_ERROR, 3600, 300)));
+
+        // A name error holds for every type of the name, whatever its case
+        NegativeCache.NegativeAnswer answer = cache.get(new DNSQuestion("WWWW.cs.ubc.ca", RecordType.MX, RecordClass.IN));
+        assertTrue(answer.isNameError());
+        assertTrue(answer.getSOA().getRemainingTTL() <= 300 && answer.getSOA().getRemainingTTL() > 298);
+        assertEquals(300, SOARecord.from(answer.getSOA()).getMinimum());
+        assertNull(cache.get(new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN)));
+
+        DNSMessage response = cache.answer(query(77, "wwww.cs.ubc.ca", RecordType.AAAA));
+        assertEquals(77, response.getID());
+        assertTrue(response.getQR());
+        assertTrue(response.getRD());
+        assertEquals(NegativeCache.NAME_ERROR, response.getRcode());
+        assertEquals(0, response.getANCount());
+        assertEquals("wwww.cs.ubc.ca", response.getQuestion(0).getHostName());
+        RecordSlice soa = response.authority().get(0);
+        assertEquals(RecordType.SOA, soa.getRecordType());
+        assertTrue(soa.getTTL() <= 300);
+        assertEquals(DNSName.of("hostmaster.cs.ubc.ca"), SOARecord.from(soa).getRName());
+
+        cache.remove(new DNSQuestion("wwww.cs.ubc.ca", RecordType.TXT, RecordClass.IN));
+        assertNull(cache.answer(query(78, "wwww.cs.ubc.ca", RecordType.A)));
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        NegativeCache cache = new NegativeCache();
+        DNSQuestion aaaa = new DNSQuestion("www.cs.ubc.ca", RecordType.AAAA, RecordClass.IN);
+        // The negative TTL is the smaller of the SOA record's TTL and its MINIMUM
+        assertTrue(cache.put(response(aaaa, 0, 1, 300)));
+        assertFalse(cache.get(aaaa).isNameError());
+        assertEquals(0, cache.answer(query(5, "www.cs.ubc.ca", RecordType.AAAA)).getRcode());
+        assertNull(cache.get(new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN)));
+
+        Thread.sleep(1100);
+        assertNull(cache.get(aaaa));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWhatIsNotCached() throws UnknownHostException {
+        NegativeCache cache = new NegativeCache();
+        DNSQuestion www = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        // A referral or a failure, no SOA record, a MINIMUM of 0, an answer
+        DNSMessage referral = new DNSMessageBuilder(1).addQuestion(www)
+                .addAuthority(new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.NS, RecordClass.IN), 3600, "ns1.cs.ubc.ca"))
+                .build();
+        referral.setQR(true);
+        assertFalse(cache.put(referral));
+        assertFalse(cache.put(response(www, 2, 3600, 300)));
+        assertFalse(cache.put(response(www, 0, 3600, 0)));
+        DNSMessage answer = new DNSMessageBuilder(1).addQuestion(www)
+                .addAnswer(new ResourceRecord(www, 300, InetAddress.getByName("142.103.6.1"))).build();
+        answer.setQR(true);
+        assertFalse(cache.put(answer));
+        assertEquals(0, cache.size());
+
+        // A name error at the end of a CNAME chain is not one for the name asked for
+        SOARecord soa = new SOARecord(DNSName.of("ns1.cs.ubc.ca"), DNSName.of("hostmaster.cs.ubc.ca"), 2024010101,
+                3600, 900, 604800, 300);
+        DNSMessage chain = new DNSMessageBuilder(1).addQuestion(www)
+                .addAnswer(new ResourceRecord(new DNSQuestion("www.cs.ubc.ca", RecordType.CNAME, RecordClass.IN), 300,
+                        "gone.cs.ubc.ca"))
+                .addAuthority(new ResourceRecord(SOA, 3600, soa.toRData())).build();
+        chain.setQR(true);
+        chain.setRcode(NegativeCache.NAME_ERROR);
+        assertFalse(cache.put(new DNSMessage(chain.getUsed(), chain.getPosition())));
+        assertNull(cache.get(new DNSQuestion("www.cs.ubc.ca", RecordType.MX, RecordClass.IN)));
+        assertEquals(0, cache.size());
+
+        // The negative TTL is capped
+        assertTrue(cache.put(response(www, NegativeCache.NAME_ERROR, 86400, 86400)));
+        assertTrue(cache.get(www).getSOA().getRemainingTTL() <= NegativeCache.MAX_TTL);
+    }
+}
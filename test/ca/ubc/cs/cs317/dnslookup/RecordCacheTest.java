@@ -0,0 +1,360 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordCacheTest {
+    private static final DNSQuestion WWW = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+    private static final DNSQuestion NS = new DNSQuestion("cs.ubc.ca", RecordType.NS, RecordClass.IN);
+
+    private static ResourceRecord a(DNSQuestion question, int ttl, int last) throws UnknownHostException {
+        return new ResourceRecord(question, ttl, InetAddress.getByAddress(new byte[]{(byte) 142, 103, 6, (byte) last}));
+    }
+
+    @Test
+    public void testRecordSets() throws UnknownHostException {
+        RecordCache cache = new InMemoryRecordCache();
+        assertTrue(cache.get(WWW).isEmpty());
+        cache.put(a(WWW, 300, 1));
+        cache.put(a(WWW, 300, 2));
+        cache.put(a(WWW, 600, 1)); // the same record, which now expires later
+        cache.put(new ResourceRecord(NS, 3600, "ns1.cs.ubc.ca"));
+        cache.put(a(WWW, 0, 3)); // already expired
+
+        assertEquals(2, cache.size());
+        List<ResourceRecord> records = cache.get(WWW);
+        assertEquals(List.of(a(WWW, 300, 1), a(WWW, 300, 2)), records);
+        assertTrue(records.get(0).getRemainingTTL() > 300);
+        assertEquals("ns1.cs.ubc.ca", cache.get(NS).get(0).getTextResult());
+        // Questions that differ only in case share their record set
+        assertEquals(records, cache.get(new DNSQuestion("WWW.cs.UBC.ca.", RecordType.A, RecordClass.IN)));
+        // and a record is the same whatever the case of its owner name
+        cache.put(a(new DNSQuestion("Www.Cs.Ubc.Ca", RecordType.A, RecordClass.IN), 900, 1));
+        assertEquals(2, cache.get(WWW).size());
+        assertTrue(cache.get(WWW).get(0).getRemainingTTL() > 600);
+        // What is handed out is a copy, which can't extend what is cached
+        records.get(1).update(a(WWW, 3600, 2));
+        assertTrue(cache.get(WWW).get(1).getRemainingTTL() <= 300);
+
+        cache.remove(WWW);
+        assertTrue(cache.get(WWW).isEmpty());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        RecordCache cache = new InMemoryRecordCache(100, 1);
+        cache.put(a(WWW, 1, 1));
+        cache.put(a(WWW, 3, 2));
+        cache.put(new ResourceRecord(NS, 1, "ns1.cs.ubc.ca"));
+        assertEquals(2, cache.get(WWW).size());
+
+        Thread.sleep(2100);
+        // The expired record is no longer returned, and the record set that has expired whole is gone
+        assertEquals(List.of(a(WWW, 3, 2)), cache.get(WWW));
+        assertEquals(1, cache.size());
+        assertTrue(cache.get(NS).isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws UnknownHostException {
+        RecordCache cache = new InMemoryRecordCache(2, 1);
+        DNSQuestion ftp = new DNSQuestion("ftp.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        cache.put(a(WWW, 300, 1));
+        cache.put(new ResourceRecord(NS, 300, "ns1.cs.ubc.ca"));
+        cache.get(WWW);
+        cache.put(a(ftp, 300, 3));
+        assertEquals(2, cache.size());
+        assertFalse(cache.get(WWW).isEmpty());
+        assertTrue(cache.get(NS).isEmpty());
+        assertFalse(cache.get(ftp).isEmpty());
+    }
+
+    @Test
+    public void testPutAll() throws UnknownHostException {
+        DNSMessage response = new DNSMessageBuilder(1).addQuestion(WWW).addAnswer(a(WWW, 300, 1))
+                .addAuthority(new ResourceRecord(NS, 300, "ns1.cs.ubc.ca"))
+                .addAdditional(a(new DNSQuestion("ns1.cs.ubc.ca", RecordType.A, RecordClass.IN), 300, 53))
+                .setOPTRecord(new OPTRecord(1232)).build();
+        RecordCache cache = new InMemoryRecordCache();
+        cache.putAll(response);
+        assertEquals(3, cache.size());
+        assertEquals(List.of(a(WWW, 300, 1)), cache.get(WWW));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        DNSQuestion ftp = new DNSQuestion("ftp.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        DNSQuestion mail = new DNSQuestion("mail.cs.ubc.ca", RecordType.A, RecordClass.IN);
+        List<DNSQuestion> asked = new ArrayList<>();
+        List<CompletableFuture<DNSMessage>> responses = new ArrayList<>();
+        PrefetchingRecordCache cache = new PrefetchingRecordCache(new InMemoryRecordCache(), question -> {
+            asked.add(question);
+            CompletableFuture<DNSMessage> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        }, 3, 0.5, 1, 100, Runnable::run);
+        cache.put(a(WWW, 2, 1));
+        cache.put(a(ftp, 2, 3));
+        cache.put(a(mail, 2, 4));
+        for (int i = 0; i < 3; i++) {
+            cache.get(WWW);
+            cache.get(mail);
+        }
+        // Hot, but not close enough to expiring
+        assertTrue(asked.isEmpty());
+
+        Thread.sleep(1100);
+        cache.get(ftp); // cold
+        assertTrue(asked.isEmpty());
+        cache.get(WWW);
+        cache.get(WWW);
+        assertEquals(List.of(WWW), asked);
+        assertEquals(1, cache.pendingRefreshes());
+        // The only refresh allowed in flight is taken
+        cache.get(mail);
+        assertEquals(1, asked.size());
+
+        DNSMessage response = new DNSMessageBuilder(1).addQuestion(WWW).addAnswer(a(WWW, 300, 1))
+                .addAnswer(a(WWW, 300, 2)).build();
+        response.setQR(true);
+        responses.get(0).complete(response);
+        assertEquals(0, cache.pendingRefreshes());
+        // Renewed in place, and not hot any more
+        List<ResourceRecord> records = cache.get(WWW);
+        assertEquals(List.of(a(WWW, 300, 1), a(WWW, 300, 2)), records);
+        assertTrue(records.get(0).getRemainingTTL() > 200);
+        assertEquals(1, asked.size());
+
+        // A failed refresh leaves the records as they were
+        cache.get(mail);
+        assertEquals(List.of(WWW, mail), asked);
+        responses.get(1).completeExceptionally(new TimeoutException());
+        assertEquals(0, cache.pendingRefreshes());
+        assertEquals(List.of(a(mail, 2, 4)), cache.get(mail));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new PrefetchingRecordCache(new InMemoryRecordCache(), question -> null, 3, 1, 1, 100, Runnable::run));
+    }
+
+    @Test
+    public void testSnapshot(@TempDir Path dir) throws Exception {
+        RecordCache cache = new InMemoryRecordCache();
+        cache.put(a(WWW, 300, 1));
+        cache.put(a(WWW, 1, 2));
+        cache.put(new ResourceRecord(NS, 3600, "ns1.cs.ubc.ca"));
+        cache.put(new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN), 3600, "mail.cs.ubc.ca"));
+        for (int i = 0; i < 5000; i++)
+            cache.put(a(new DNSQuestion("host" + i + ".cs.ubc.ca", RecordType.A, RecordClass.IN), 600, i & 0xFF));
+        Path file = dir.resolve("cache.snapshot");
+        assertEquals(5004, CacheSnapshot.save(cache, file));
+        // Names are compressed, and records are split over several chunks; each record also has a 20-byte index entry
+        assertTrue(Files.size(file) < 5004 * 50);
+
+        Thread.sleep(1100);
+        RecordCache restored = new InMemoryRecordCache();
+        assertEquals(5003, CacheSnapshot.load(file, restored));
+        assertEquals(List.of(a(WWW, 300, 1)), restored.get(WWW));
+        assertEquals(cache.get(WWW).get(0).getExpirationTime(), restored.get(WWW).get(0).getExpirationTime());
+        assertEquals("ns1.cs.ubc.ca", restored.get(NS).get(0).getTextResult());
+        assertEquals(1, restored.get(new DNSQuestion("host4999.cs.ubc.ca", RecordType.A, RecordClass.IN)).size());
+
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        assertThrows(IOException.class, () -> CacheSnapshot.load(file, restored));
+    }
+
+    @Test
+    public void testOpenSnapshot(@TempDir Path dir) throws Exception {
+        RecordCache cache = new InMemoryRecordCache();
+        cache.put(a(WWW, 300, 1));
+        cache.put(a(WWW, 300, 2));
+        cache.put(a(WWW, 1, 3));
+        cache.put(new ResourceRecord(NS, 3600, "ns1.cs.ubc.ca"));
+        DNSQuestion mail = new DNSQuestion("cs.ubc.ca", RecordType.MX, RecordClass.IN);
+        cache.put(new ResourceRecord(mail, 3600, "mail.cs.ubc.ca"));
+        Path file = dir.resolve("cache.snapshot");
+        assertEquals(5, CacheSnapshot.save(cache, file));
+
+        Thread.sleep(1100);
+        RecordCache underlying = new InMemoryRecordCache();
+        RecordCache opened = CacheSnapshot.open(file, underlying);
+        // Nothing is decoded until it is asked for
+        assertEquals(0, underlying.size());
+        assertEquals(3, opened.size());
+
+        // The expired record is discarded, and the others keep their expiration time
+        assertEquals(List.of(a(WWW, 300, 1), a(WWW, 300, 2)), opened.get(WWW));
+        assertEquals(cache.get(WWW).get(0).getExpirationTime(), opened.get(WWW).get(0).getExpirationTime());
+        assertEquals(1, underlying.size());
+        assertEquals(3, opened.size());
+
+        // A record put for a question of the snapshot is merged with its record set
+        opened.put(new ResourceRecord(NS, 3600, "ns2.cs.ubc.ca"));
+        assertEquals(2, opened.get(NS).size());
+
+        // A record set removed is not brought back from the snapshot
+        opened.remove(mail);
+        assertEquals(List.of(), opened.get(mail));
+        assertEquals(2, opened.size());
+
+        List<ResourceRecord> all = new ArrayList<>();
+        opened.forEach(all::add);
+        assertEquals(4, all.size());
+
+        opened.clear();
+        assertEquals(0, opened.size());
+        assertEquals(List.of(), opened.get(NS));
+    }
+
+    @Test
+    public void testOffHeapStore() throws Exception {
+        RecordCache cache = new OffHeapRecordCache(100, 1 << 20, 2);
+        cache.put(a(WWW, 300, 1));
+        cache.put(a(WWW, 300, 2));
+        cache.put(a(WWW, 600, 1));
+        cache.put(new ResourceRecord(new DNSQuestion("WWW.CS.UBC.CA", RecordType.A, RecordClass.IN), 300,
+                InetAddress.getByAddress(new byte[]{(byte) 142, 103, 6, 3})));
+        cache.put(new ResourceRecord(NS, 3600, "ns1.cs.ubc.ca"));
+        cache.put(new ResourceRecord(new DNSQuestion("cs.ubc.ca", 99, 1), 60, new byte[]{1, 2, 3}));
+        cache.put(new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.AAAA, RecordClass.IN), 60,
+                InetAddress.getByName("2001:db8::1")));
+        cache.put(a(WWW, 0, 4));
+
+        assertEquals(4, cache.size());
+        List<ResourceRecord> records = cache.get(new DNSQuestion("Www.Cs.Ubc.Ca", RecordType.A, RecordClass.IN));
+        assertEquals(List.of(a(WWW, 300, 1), a(WWW, 300, 2), a(WWW, 300, 3)), records);
+        assertTrue(records.get(0).getRemainingTTL() > 300);
+        assertTrue(records.get(1).getRemainingTTL() <= 300);
+        assertEquals("ns1.cs.ubc.ca", cache.get(NS).get(0).getTextResult());
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(new DNSQuestion("cs.ubc.ca", 99, 1)).get(0).getRawData());
+        assertEquals("2001:db8:0:0:0:0:0:1",
+                cache.get(new DNSQuestion("cs.ubc.ca", RecordType.AAAA, RecordClass.IN)).get(0).getTextResult());
+
+        // A record set grows through larger and larger slots
+        DNSQuestion big = new DNSQuestion("big.cs.ubc.ca", RecordType.TXT, RecordClass.IN);
+        for (int i = 0; i < 300; i++)
+            cache.put(new ResourceRecord(big, 300, "text record number " + i));
+        List<ResourceRecord> texts = cache.get(big);
+        assertTrue(texts.size() > 200 && texts.size() < 300);
+        assertEquals("text record number 0", texts.get(0).getTextResult());
+
+        List<ResourceRecord> all = new ArrayList<>();
+        cache.forEach(all::add);
+        assertEquals(6 + texts.size(), all.size());
+
+        cache.remove(WWW);
+        assertTrue(cache.get(WWW).isEmpty());
+        assertEquals(4, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(cache.get(NS).isEmpty());
+    }
+
+    @Test
+    public void testOffHeapEviction() throws UnknownHostException {
+        OffHeapRecordCache cache = new OffHeapRecordCache(1000, 0, 1);
+        for (int i = 0; i < 5000; i++)
+            cache.put(a(new DNSQuestion("host" + i + ".test", RecordType.A, RecordClass.IN), 300 + i, i & 0xFF));
+        assertEquals(1000, cache.size());
+        // Record sets that expire first are evicted first
+        int kept = 0;
+        for (int i = 4000; i < 5000; i++)
+            kept += cache.get(new DNSQuestion("host" + i + ".test", RecordType.A, RecordClass.IN)).size();
+        assertTrue(kept > 500);
+
+        // Memory is limited to a slab per slot size, which only holds a few of these
+        DNSQuestion big = new DNSQuestion("big.test", RecordType.TXT, RecordClass.IN);
+        for (int i = 0; i < 100; i++)
+            cache.put(new ResourceRecord(big, 300, "x".repeat(1000) + i));
+        assertTrue(cache.get(big).size() > 0);
+        assertTrue(cache.allocatedBytes() <= 10 * OffHeapRecordCache.SLAB_SIZE);
+    }
+
+    @Test
+    public void testOffHeapMixedSlotSizes() throws UnknownHostException {
+        // A slab per slot size, all taken by small record sets
+        OffHeapRecordCache cache = new OffHeapRecordCache(100_000, 0, 1);
+        for (int i = 0; i < 100_000; i++)
+            cache.put(a(new DNSQuestion("host" + i + ".test", RecordType.A, RecordClass.IN), 300, i & 0xFF));
+        int before = cache.size();
+
+        // A record set that grows through every slot size still gets memory, for at most a slab of small record sets
+        DNSQuestion aaaa = new DNSQuestion("v6.test", RecordType.AAAA, RecordClass.IN);
+        byte[] address = InetAddress.getByName("2001:db8::").getAddress();
+        for (int i = 0; i < 100; i++) {
+            address[15] = (byte) i;
+            cache.put(new ResourceRecord(aaaa, 300, InetAddress.getByAddress(address)));
+        }
+        assertEquals(100, cache.get(aaaa).size());
+        int lost = before - (cache.size() - 1);
+        assertTrue(lost <= OffHeapRecordCache.SLAB_SIZE / OffHeapRecordCache.MIN_SLOT_SIZE, "lost " + lost);
+
+        // Small record sets only make room among themselves
+        for (int i = 0; i < 10_000; i++)
+            cache.put(a(new DNSQuestion("more" + i + ".test", RecordType.A, RecordClass.IN), 300, i & 0xFF));
+        assertEquals(100, cache.get(aaaa).size());
+        assertTrue(cache.allocatedBytes() <= OffHeapRecordCache.SLOT_CLASSES * OffHeapRecordCache.SLAB_SIZE);
+    }
+
+    @Test
+    public void testOffHeapExpiredRecordsMakeRoom() throws Exception {
+        OffHeapRecordCache cache = new OffHeapRecordCache(100, 1 << 20, 1);
+        DNSQuestion big = new DNSQuestion("big.test", RecordType.TXT, RecordClass.IN);
+        cache.put(new ResourceRecord(big, 300, "kept"));
+        // Far more records than fit in the largest slot, but only a few of them alive at a time
+        for (int i = 0; i < 3 * OffHeapRecordCache.MAX_SLOT_SIZE / 1000; i++) {
+            ResourceRecord rr = new ResourceRecord(big, 300, "x".repeat(1000) + i);
+            rr.setExpirationTime(System.currentTimeMillis() + 30);
+            cache.put(rr);
+            Thread.sleep(40);
+        }
+        ResourceRecord last = new ResourceRecord(big, 300, "x".repeat(1000) + "last");
+        cache.put(last);
+        assertEquals(List.of(new ResourceRecord(big, 300, "kept"), last), cache.get(big));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        testConcurrentUse(new InMemoryRecordCache(1000));
+        testConcurrentUse(new OffHeapRecordCache(1000, 1 << 20));
+    }
+
+    private void testConcurrentUse(RecordCache cache) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 5000; i++) {
+                        DNSQuestion question = new DNSQuestion("host" + (i + offset) % 2000 + ".test", RecordType.A, RecordClass.IN);
+                        cache.put(a(question, 300, i & 0xFF));
+                        cache.get(question);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        assertTrue(failures.isEmpty());
+        assertTrue(cache.size() <= 1000 + Runtime.getRuntime().availableProcessors() * 4);
+    }
+}
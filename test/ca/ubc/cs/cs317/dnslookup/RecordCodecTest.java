@@ -0,0 +1,145 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordCodecTest {
+    private static final long BASE = 1_700_000_000_000L;
+
+    private static ResourceRecord record(String name, RecordType type, int ttl, String result) throws IOException {
+        DNSQuestion question = new DNSQuestion(name, type, RecordClass.IN);
+        ResourceRecord rr = type == RecordType.A || type == RecordType.AAAA
+                ? new ResourceRecord(question, ttl, InetAddress.getByName(result))
+                : new ResourceRecord(question, ttl, result);
+        rr.setExpirationTime(BASE + ttl * 1000L);
+        return rr;
+    }
+
+    private static List<ResourceRecord> records() throws IOException {
+        List<ResourceRecord> records = new ArrayList<>();
+        records.add(record("www.cs.ubc.ca", RecordType.A, 300, "142.103.6.1"));
+        records.add(record("www.cs.ubc.ca", RecordType.AAAA, 300, "2001:db8::1"));
+        records.add(record("cs.ubc.ca", RecordType.NS, 3600, "ns1.cs.ubc.ca"));
+        records.add(record("cs.ubc.ca", RecordType.MX, 3600, "mail.cs.ubc.ca"));
+        records.add(record("ns1.cs.ubc.ca", RecordType.A, 3600, "142.103.6.6"));
+        records.add(record("Mixed.Case.CA.", RecordType.CNAME, 60, "www.cs.ubc.ca"));
+        records.add(record("", RecordType.NS, 518400, "a.root-servers.net"));
+        records.add(record("odd..name", RecordType.TXT, 1, "free text, not a name"));
+        ResourceRecord raw = new ResourceRecord(new DNSQuestion("cs.ubc.ca", 99, 1), 0, new byte[]{1, 2, 3});
+        raw.setExpirationTime(BASE + 10_000);
+        records.add(raw);
+        return records;
+    }
+
+    private static void assertSameRecords(List<ResourceRecord> expected, List<ResourceRecord> actual) {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).getExpirationTime(), actual.get(i).getExpirationTime());
+    }
+
+    @Test
+    public void testBuffer() throws IOException {
+        List<ResourceRecord> records = records();
+        RecordCodec.Encoder encoder = new RecordCodec.Encoder(BASE);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (ResourceRecord rr : records)
+            encoder.encode(rr, buffer);
+        int length = buffer.position();
+        // A name seen before takes a byte: the record for www.cs.ubc.ca AAAA is 1 + 3 + 1 + 16 bytes long
+        encoder.encode(records.get(1), buffer);
+        assertEquals(length + 23, buffer.position());
+        buffer.flip();
+
+        RecordCodec.Decoder decoder = new RecordCodec.Decoder();
+        List<ResourceRecord> decoded = new ArrayList<>();
+        for (ResourceRecord rr = decoder.decode(buffer); rr != null; rr = decoder.decode(buffer))
+            decoded.add(rr);
+        assertSameRecords(records, decoded.subList(0, records.size()));
+        assertEquals(records.get(1), decoded.get(records.size()));
+    }
+
+    @Test
+    public void testOverflowLeavesNothingBehind() throws IOException {
+        List<ResourceRecord> records = records();
+        RecordCodec.Encoder encoder = new RecordCodec.Encoder(BASE);
+        ByteBuffer small = ByteBuffer.allocate(40);
+        encoder.encode(records.get(0), small);
+        assertThrows(BufferOverflowException.class, () -> encoder.encode(records.get(3), small));
+        // The record goes to the next buffer instead, and the batch still decodes
+        ByteBuffer next = ByteBuffer.allocate(100);
+        encoder.encode(records.get(3), next);
+        small.flip();
+        next.flip();
+        RecordCodec.Decoder decoder = new RecordCodec.Decoder();
+        assertEquals(records.get(0), decoder.decode(small));
+        assertNull(decoder.decode(small));
+        assertEquals(records.get(3), decoder.decode(next));
+    }
+
+    @Test
+    public void testUnderflowLeavesNothingRead() throws IOException {
+        List<ResourceRecord> records = records();
+        RecordCodec.Encoder encoder = new RecordCodec.Encoder(BASE);
+        ByteBuffer whole = ByteBuffer.allocate(4096);
+        for (ResourceRecord rr : records)
+            encoder.encode(rr, whole);
+        whole.flip();
+
+        // The batch arrives a few bytes at a time, and each record is read once all of it is there
+        RecordCodec.Decoder decoder = new RecordCodec.Decoder();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        List<ResourceRecord> decoded = new ArrayList<>();
+        while (whole.hasRemaining()) {
+            buffer.put(whole.get());
+            buffer.flip();
+            try {
+                for (ResourceRecord rr = decoder.decode(buffer); rr != null; rr = decoder.decode(buffer))
+                    decoded.add(rr);
+            } catch (BufferUnderflowException e) {
+                // Wait for more bytes
+            }
+            buffer.compact();
+        }
+        assertSameRecords(records, decoded);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        List<ResourceRecord> records = records();
+        RecordCodec.Encoder encoder = new RecordCodec.Encoder(BASE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ResourceRecord rr : records)
+            encoder.encode(rr, out);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        RecordCodec.Decoder decoder = new RecordCodec.Decoder();
+        List<ResourceRecord> decoded = new ArrayList<>();
+        for (ResourceRecord rr = decoder.decode(in); rr != null; rr = decoder.decode(in))
+            decoded.add(rr);
+        assertSameRecords(records, decoded);
+
+        byte[] truncated = bytes.toByteArray();
+        DataInputStream cut = new DataInputStream(new ByteArrayInputStream(truncated, 0, truncated.length - 1));
+        RecordCodec.Decoder again = new RecordCodec.Decoder();
+        assertThrows(EOFException.class, () -> {
+            while (again.decode(cut) != null) ;
+        });
+        assertThrows(IllegalArgumentException.class, () -> new RecordCodec.Decoder().decode(ByteBuffer.wrap(new byte[]{9})));
+    }
+}
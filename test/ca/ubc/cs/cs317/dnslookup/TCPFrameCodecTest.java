@@ -0,0 +1,105 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TCPFrameCodecTest {
+    private static DNSMessage query(int id, String name) {
+        DNSMessage message = new DNSMessage((short) id);
+        message.addQuestion(new DNSQuestion(name, RecordType.A, RecordClass.IN));
+        return message;
+    }
+
+    @Test
+    public void testChunksOfAnySize() {
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        TCPFrameCodec.encode(query(1, "www.cs.ubc.ca"), stream);
+        TCPFrameCodec.encode(query(2, "norm.cs.ubc.ca"), stream);
+        TCPFrameCodec.encode(query(3, "ubc.ca"), stream);
+        stream.flip();
+        assertEquals(0x001F, stream.getShort(0));
+
+        // Byte by byte: each message comes out as soon as its last byte is in
+        TCPFrameCodec codec = new TCPFrameCodec();
+        int ids = 0;
+        while (stream.hasRemaining()) {
+            codec.feed(stream.duplicate().limit(stream.position() + 1));
+            stream.position(stream.position() + 1);
+            DNSMessage message = codec.next();
+            if (message != null) {
+                assertEquals(++ids, message.getID());
+                assertEquals(0, codec.buffered());
+            }
+        }
+        assertEquals(3, ids);
+
+        // All at once: the three messages are pipelined in the same chunk
+        stream.rewind();
+        codec.feed(stream);
+        DNSMessage message = new DNSMessage((short) 0);
+        assertTrue(codec.next(message));
+        assertEquals("www.cs.ubc.ca", message.getQuestion(0).getHostName());
+        assertTrue(codec.next(message));
+        assertEquals("norm.cs.ubc.ca", message.getQuestion(0).getHostName());
+        assertTrue(codec.next(message));
+        assertEquals("ubc.ca", message.getQuestion(0).getHostName());
+        assertFalse(codec.next(message));
+        assertNull(codec.next());
+
+        codec.feed(ByteBuffer.wrap(new byte[]{0, 4, 1, 2, 3, 4}));
+        assertThrows(IllegalArgumentException.class, codec::next);
+    }
+
+    @Test
+    public void testLargeMessage() {
+        DNSMessage message = query(7, "norm.cs.ubc.ca");
+        message.setMaxLength(DNSMessage.MAX_MESSAGE_LENGTH);
+        DNSQuestion question = new DNSQuestion("norm.cs.ubc.ca", RecordType.AAAA, RecordClass.IN);
+        for (int i = 0; i < 1000; i++)
+            message.addResourceRecord(DNSSection.ANSWER, new ResourceRecord(question, 300, new byte[16]));
+        ByteBuffer stream = ByteBuffer.allocate(TCPFrameCodec.PREFIX_LENGTH + message.getPosition());
+        TCPFrameCodec.encode(message, stream);
+        stream.flip();
+
+        TCPFrameCodec codec = new TCPFrameCodec();
+        while (stream.hasRemaining()) {
+            assertNull(codec.next());
+            codec.feed(stream.duplicate().limit(Math.min(stream.limit(), stream.position() + 1000)));
+            stream.position(Math.min(stream.limit(), stream.position() + 1000));
+        }
+        DNSMessage received = codec.next();
+        assertEquals(1000, received.getANCount());
+        assertEquals(1000, received.answers().size());
+    }
+
+    @Test
+    public void testLoopback() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel accepted = server.accept()) {
+                TCPFrameCodec serverCodec = new TCPFrameCodec();
+                for (int id = 1; id <= 50; id++)
+                    assertEquals(TCPFrameCodec.PREFIX_LENGTH + 31, serverCodec.write(query(id, "www.cs.ubc.ca"), accepted));
+                accepted.shutdownOutput();
+
+                TCPFrameCodec clientCodec = new TCPFrameCodec();
+                int expected = 1;
+                while (clientCodec.read(client) >= 0) {
+                    for (DNSMessage message = clientCodec.next(); message != null; message = clientCodec.next())
+                        assertEquals(expected++, message.getID());
+                }
+                assertEquals(51, expected);
+                assertEquals(0, clientCodec.buffered());
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireResponseCacheTest {
+    private static final DNSQuestion WWW = new DNSQuestion("www.cs.ubc.ca", RecordType.A, RecordClass.IN);
+    private long now = 1_000_000;
+
+    private static DNSMessage response(DNSQuestion question) throws UnknownHostException {
+        DNSMessage response = new DNSMessageBuilder(1).addQuestion(question)
+                .addAnswer(new ResourceRecord(question, 300, InetAddress.getByName("142.103.6.1")))
+                .addAuthority(new ResourceRecord(new DNSQuestion("cs.ubc.ca", RecordType.NS, RecordClass.IN), 3600, "ns1.cs.ubc.ca"))
+                .setOPTRecord(new OPTRecord(1232))
+                .build();
+        response.setQR(true);
+        return response;
+    }
+
+    private static DNSMessage query(int id, String name) {
+        DNSMessage query = new DNSMessage((short) id);
+        query.setRD(true);
+        query.addQuestion(new DNSQuestion(name, RecordType.A, RecordClass.IN));
+        return query;
+    }
+
+    @Test
+    public void testHitIsPatched() throws UnknownHostException {
+        WireResponseCache cache = new WireResponseCache(10, () -> now);
+        DNSMessage stored = response(WWW);
+        assertTrue(cache.put(stored));
+        assertNull(cache.get(query(7, "ftp.cs.ubc.ca")));
+
+        now += 100_500;
+        DNSMessage hit = cache.get(query(4242, "www.cs.ubc.ca"));
+        assertEquals(4242, hit.getID());
+        assertTrue(hit.getQR());
+        assertTrue(hit.getRD());
+        assertEquals("www.cs.ubc.ca", hit.getQuestion(0).getHostName());
+        assertEquals(200, hit.answers().get(0).getTTL());
+        assertEquals(3500, hit.authority().get(0).getTTL());
+        assertEquals("142.103.6.1", hit.answers().getRR(0).getTextResult());
+        // The upstream OPT record is not served
+        assertEquals(0, hit.getARCount());
+        assertNull(hit.getOPTRecord());
+
+        ByteBuffer dst = ByteBuffer.allocate(512);
+        dst.position(10);
+        int length = cache.get(query(1, "www.cs.ubc.ca").asByteBuffer(), dst);
+        assertEquals(stored.getPosition() - new OPTRecord(1232).length(), length);
+        assertEquals(10 + length, dst.position());
+        assertEquals(1, dst.getShort(10));
+
+        now += 200_000;
+        assertNull(cache.get(query(2, "www.cs.ubc.ca")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReceivedResponse() throws UnknownHostException {
+        WireResponseCache cache = new WireResponseCache(10, () -> now);
+        DNSMessage built = response(WWW);
+        // As received from upstream, only the header has been decoded
+        DNSMessage received = new DNSMessage(built.getUsed(), built.getPosition());
+        assertTrue(cache.put(received));
+        DNSMessage hit = cache.get(query(8, "www.cs.ubc.ca"));
+        assertEquals("142.103.6.1", hit.answers().getRR(0).getTextResult());
+        assertEquals(3600, hit.authority().get(0).getTTL());
+    }
+
+    @Test
+    public void testCaseIsEchoed() throws UnknownHostException {
+        WireResponseCache cache = new WireResponseCache(10, () -> now);
+        assertTrue(cache.put(response(WWW)));
+        DNSMessage hit = cache.get(query(5, "WwW.cS.uBc.CA"));
+        assertEquals("WwW.cS.uBc.CA", hit.getQuestion(0).getHostName());
+        assertEquals("142.103.6.1", hit.answers().getRR(0).getTextResult());
+
+        // A response stored for a mixed-case question replaces the one stored for the same question in lower case
+        assertTrue(cache.put(response(new DNSQuestion("WWW.CS.UBC.CA", RecordType.A, RecordClass.IN))));
+        assertEquals(1, cache.size());
+        assertEquals("www.cs.ubc.ca", cache.get(query(6, "www.cs.ubc.ca")).getQuestion(0).getHostName());
+        cache.remove(new DNSQuestion("Www.cs.ubc.ca", RecordType.A, RecordClass.IN));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWhatIsNotCached() throws UnknownHostException {
+        WireResponseCache cache = new WireResponseCache(10, () -> now);
+        DNSMessage truncated = response(WWW);
+        truncated.setTC(true);
+        assertFalse(cache.put(truncated));
+        DNSMessage failed = response(WWW);
+        failed.setRcode(2);
+        assertFalse(cache.put(failed));
+        assertFalse(cache.put(query(1, "www.cs.ubc.ca")));
+        DNSMessage zero = new DNSMessageBuilder(1).addQuestion(WWW)
+                .addAnswer(new ResourceRecord(WWW, 0, InetAddress.getByName("142.103.6.1"))).build();
+        zero.setQR(true);
+        assertFalse(cache.put(zero));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCapacity() throws UnknownHostException {
+        WireResponseCache cache = new WireResponseCache(3, () -> now);
+        for (int i = 0; i < 10; i++)
+            assertTrue(cache.put(response(new DNSQuestion("host" + i + ".cs.ubc.ca", RecordType.A, RecordClass.IN))));
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get(query(1, "host9.cs.ubc.ca")));
+    }
+
+    @Test
+    public void testEvictionSamplesTheWholeMap() {
+        // Small integers are their own hash, so the map's table holds them in order
+        ConcurrentHashMap<Integer, Long> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < 4096; i++)
+            map.put(i, 1000L);
+        Set<Integer> evicted = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            Set<Integer> before = new HashSet<>(map.keySet());
+            assertTrue(SampledEviction.evict(map, Long::longValue, 0));
+            before.removeAll(map.keySet());
+            evicted.addAll(before);
+        }
+        assertEquals(200, evicted.size());
+        assertTrue(evicted.stream().anyMatch(key -> key < 2048));
+        assertTrue(evicted.stream().anyMatch(key -> key >= 2048));
+
+        // An expired entry goes first
+        map.clear();
+        map.put(1, 1000L);
+        map.put(2, 10L);
+        map.put(3, 1000L);
+        assertTrue(SampledEviction.evict(map, Long::longValue, 100));
+        assertFalse(map.containsKey(2));
+        map.clear();
+        assertFalse(SampledEviction.evict(map, Long::longValue, 100));
+    }
+}